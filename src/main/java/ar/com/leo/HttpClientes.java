@@ -0,0 +1,116 @@
+package ar.com.leo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Clientes HTTP compartidos por toda la aplicación. Un HttpClient mantiene sus conexiones abiertas: creando uno
+ * por llamada cada request paga de nuevo la conexión TCP y el handshake TLS. Ambos clientes prefieren HTTP/2
+ * (varios requests al mismo servidor por una sola conexión) y usan un pool de hilos propio.
+ * <p>
+ * Las páginas y las respuestas de la API se piden comprimidas (ver comprimido y ofString): el HTML de una
+ * publicación ocupa unas 8 veces menos en gzip.
+ */
+public final class HttpClientes {
+
+    private static final int CONNECT_TIMEOUT_SECONDS = 15;
+
+    private static final AtomicInteger hilos = new AtomicInteger();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2), r -> {
+                Thread t = new Thread(r, "http-" + hilos.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+    // Sin seguir redirecciones: la API y cookiesValidas (ahí el 302 al login es la respuesta)
+    private static final HttpClient principal = crear(HttpClient.Redirect.NEVER);
+    // Para las páginas de publicaciones (permalinks movidos, ver MapaRedirecciones) y las imágenes del CDN
+    private static final HttpClient conRedirecciones = crear(HttpClient.Redirect.NORMAL);
+
+    private HttpClientes() {
+    }
+
+    public static HttpClient principal() {
+        return principal;
+    }
+
+    public static HttpClient conRedirecciones() {
+        return conRedirecciones;
+    }
+
+    /**
+     * El mismo request pidiendo la respuesta en gzip (si no lo pide ya). Se lee con ofString().
+     */
+    public static HttpRequest comprimido(HttpRequest request) {
+        if (request.headers().firstValue("Accept-Encoding").isPresent()) {
+            return request;
+        }
+        return HttpRequest.newBuilder(request, (nombre, valor) -> true)
+                .header("Accept-Encoding", "gzip")
+                .build();
+    }
+
+    /**
+     * Como BodyHandlers.ofString(), pero descomprime el cuerpo si el servidor lo mandó en gzip.
+     */
+    public static HttpResponse.BodyHandler<String> ofString() {
+        return info -> {
+            Charset charset = charset(info.headers());
+            String encoding = info.headers().firstValue("Content-Encoding").orElse("");
+            if (!encoding.equalsIgnoreCase("gzip")) {
+                return HttpResponse.BodySubscribers.ofString(charset);
+            }
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(),
+                    bytes -> descomprimir(bytes, charset));
+        };
+    }
+
+    private static String descomprimir(byte[] bytes, Charset charset) {
+        if (bytes.length == 0) {
+            // Las respuestas sin cuerpo (304, HEAD) pueden traer Content-Encoding igual
+            return "";
+        }
+        try (GZIPInputStream entrada = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(entrada.readAllBytes(), charset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Respuesta gzip inválida", e);
+        }
+    }
+
+    private static Charset charset(HttpHeaders headers) {
+        String tipo = headers.firstValue("Content-Type").orElse("");
+        int inicio = tipo.toLowerCase().indexOf("charset=");
+        if (inicio >= 0) {
+            String nombre = tipo.substring(inicio + "charset=".length()).split(";")[0].trim().replace("\"", "");
+            try {
+                return Charset.forName(nombre);
+            } catch (Exception e) {
+                // Charset desconocido: se lee como UTF-8
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static HttpClient crear(HttpClient.Redirect redirecciones) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(CONNECT_TIMEOUT_SECONDS))
+                .followRedirects(redirecciones)
+                .executor(executor)
+                .build();
+    }
+
+}
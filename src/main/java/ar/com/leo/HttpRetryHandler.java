@@ -12,9 +12,29 @@ import java.net.http.HttpResponse;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.ZonedDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
+/**
+ * Envía requests con reintentos. Los reintentos no duermen a ningún hilo: se agregan a una cola de pendientes
+ * ordenada por cuándo les toca (a igual momento, primero el de plazo más cercano) y un hilo propio los envía de
+ * nuevo con el mismo limitador de velocidad que los requests normales.
+ * <p>
+ * Límites de los reintentos:
+ * - La espera entre intentos es "decorrelated jitter": al azar entre BASE_WAIT_MS y el triple de la anterior,
+ * como mucho MAX_WAIT_MS (los 429 esperan además lo que pida Retry-After).
+ * - Cada request tiene un plazo (PLAZO_MS desde el primer intento): un reintento que caería después no se hace.
+ * - Presupuesto por ejecución: los reintentos no pueden pasar del 10% de los requests (más un mínimo), así un
+ * mal momento de la API no se come la velocidad permitida con reintentos.
+ */
 public class HttpRetryHandler {
 
     public static final Path BASE_SECRET_DIR = Paths.get(
@@ -23,125 +43,296 @@ public class HttpRetryHandler {
     private static final Logger logger = LogManager.getLogger(HttpRetryHandler.class);
     private static final int MAX_RETRIES = 3; // cantidad máxima de reintentos
     private static final int MAX_RETRIES_429 = 10; // más reintentos para 429 (rate limiting)
+    private static final long MAX_WAIT_MS = 60_000; // espera máxima entre intentos
+    private static final long PLAZO_MS = 180_000; // plazo de cada request, reintentos incluidos
+    private static final double FRACCION_REINTENTOS = 0.1; // reintentos / requests permitidos
+    private static final int REINTENTOS_MINIMOS = 20; // reintentos permitidos aunque haya pocos requests
+    private static final int CONCURRENCIA_INICIAL = 10; // requests en curso al empezar (ver LimiteAdaptativo)
+    private static final int CONCURRENCIA_MAXIMA = 64;
     private final long BASE_WAIT_MS; // espera inicial
     private final RateLimiter rateLimiter; // ✅ limitador
+    private final LimiteAdaptativo concurrencia = new LimiteAdaptativo(CONCURRENCIA_INICIAL, 1, CONCURRENCIA_MAXIMA);
 
     private final HttpClient client;
 
+    // Presupuesto de reintentos de la ejecución
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong reintentos = new AtomicLong();
+    private final AtomicLong sinPresupuesto = new AtomicLong();
+    private final AtomicBoolean avisoPresupuesto = new AtomicBoolean();
+
+    private final DelayQueue<Reintento> pendientes = new DelayQueue<>();
+
     public HttpRetryHandler(HttpClient client, long BASE_WAIT_MS, double permitsPerSecond) {
         this.client = client;
         this.BASE_WAIT_MS = BASE_WAIT_MS;
         this.rateLimiter = RateLimiter.create(permitsPerSecond); // Requests por segundo
+
+        Thread despachador = new Thread(this::despachar, "reintentos-http");
+        despachador.setDaemon(true);
+        despachador.start();
     }
 
+    /**
+     * Envía el request y espera la respuesta final (la última recibida si se agotaron los reintentos, o null si
+     * nunca hubo una).
+     */
     public HttpResponse<String> sendWithRetry(Supplier<HttpRequest> requestSupplier) {
-        HttpResponse<String> response = null;
-
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            try {
-                rateLimiter.acquire();
+        try {
+            return sendWithRetryAsync(requestSupplier).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
-                HttpRequest request = requestSupplier.get(); // request actualizado
-                response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                int status = response.statusCode();
+    /**
+     * Como sendWithRetry, sin esperar: el future se completa con la respuesta final.
+     */
+    public CompletableFuture<HttpResponse<String>> sendWithRetryAsync(Supplier<HttpRequest> requestSupplier) {
+        Intento intento = new Intento(requestSupplier, System.currentTimeMillis() + PLAZO_MS);
+        requests.incrementAndGet();
+        enviar(intento);
+        return intento.resultado;
+    }
 
-                // ---- OK ----
-                if (status >= 200 && status < 300)
-                    return response;
+    /**
+     * Empieza una ejecución nueva: el presupuesto de reintentos vuelve a cero.
+     */
+    public void reiniciarPresupuesto() {
+        requests.set(0);
+        reintentos.set(0);
+        sinPresupuesto.set(0);
+        avisoPresupuesto.set(false);
+    }
 
-                // ---- Token expirado ----
-                if (status == 401) {
-                    logger.warn("401 Unauthorized → actualizando tokens...");
-                    MercadoLibreAPI.verificarTokens();
-                    continue; // volverá a crear el request con token nuevo
-                }
+    /**
+     * Reintentos que no se hicieron en esta ejecución por falta de presupuesto.
+     */
+    public long reintentosSinPresupuesto() {
+        return sinPresupuesto.get();
+    }
 
-                // ---- Error de concurrencia ----
-                if (status == 409 || status == 423) {
-                    long waitMs = BASE_WAIT_MS + ThreadLocalRandom.current().nextInt(200, 800);
-                    logger.warn("409 Conflict (KVS). Retry en " + waitMs + " ms...");
-                    Thread.sleep(waitMs);
-                    continue;
-                }
+    /**
+     * Requests a la API que se permiten en curso a la vez ahora.
+     */
+    public int concurrencia() {
+        return concurrencia.limite();
+    }
 
-                // ---- Too Many Requests ----
-                if (status == 429) {
-                    // Manejar 429 con más reintentos
-                    response = handle429WithRetries(requestSupplier, response);
-                    if (response != null && response.statusCode() == 429) {
-                        // Si después de todos los reintentos sigue siendo 429, retornar
-                        logger.error("429 Too Many Requests: máximo de reintentos alcanzado");
-                        return response;
-                    }
-                    // Si se resolvió el 429, continuar con el flujo normal
-                    if (response != null && response.statusCode() >= 200 && response.statusCode() < 300) {
-                        return response;
+    private void enviar(Intento intento) {
+        HttpRequest request;
+        long inicio;
+        try {
+            // Primero el lugar y después el permiso de velocidad: si hay que esperar lugar no se pierde el permiso
+            inicio = concurrencia.adquirir();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            terminar(intento);
+            return;
+        }
+        try {
+            rateLimiter.acquire();
+            request = intento.requestSupplier.get(); // request actualizado
+        } catch (RuntimeException e) {
+            concurrencia.liberar(inicio, true);
+            intento.resultado.completeExceptionally(e);
+            return;
+        }
+        client.sendAsync(HttpClientes.comprimido(request), HttpClientes.ofString())
+                .whenComplete((response, error) -> {
+                    concurrencia.liberar(inicio, error != null || response.statusCode() == 429);
+                    try {
+                        procesar(intento, request, response, error);
+                    } catch (RuntimeException e) {
+                        intento.resultado.completeExceptionally(e);
                     }
-                    // Si hay otro error, continuar con el loop normal
-                    continue;
-                }
+                });
+    }
 
-                // ---- Errores de servidor ----
-                if (status >= 500 && status < 600) {
-                    long waitMs = BASE_WAIT_MS * (long) Math.pow(2, attempt - 1);
-                    logger.warn("5xx Error. Retry en " + waitMs + " ms...");
-                    Thread.sleep(waitMs);
-                    continue;
-                }
+    private void procesar(Intento intento, HttpRequest request, HttpResponse<String> response, Throwable error) {
+        if (error != null) {
+            Throwable causa = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                    : error;
+            if (!(causa instanceof IOException)) {
+                intento.resultado.completeExceptionally(causa);
+                return;
+            }
+            if (intento.reintentos < MAX_RETRIES) {
+                long waitMs = intento.proximaEspera();
+                intento.reintentos++;
+                logger.warn("IOException. Retry en " + waitMs + " ms... (" + intento.reintentos + "/"
+                        + MAX_RETRIES + ")");
+                reintentar(intento, waitMs, false);
+            } else {
+                terminar(intento);
+            }
+            return;
+        }
 
-                // ---- Errores 400-499 no recuperables ----
-                return response;
+        intento.ultima = response;
+        int status = response.statusCode();
 
-            } catch (IOException e) {
-                long waitMs = BASE_WAIT_MS * (long) Math.pow(2, attempt - 1);
-                logger.warn("IOException. Retry en " + waitMs + " ms... (" + attempt + "/" + MAX_RETRIES + ")");
-                try {
-                    Thread.sleep(waitMs);
-                } catch (InterruptedException ex) {
-                    Thread.currentThread().interrupt();
-                    return response;
+        // ---- OK ----
+        if (status >= 200 && status < 300) {
+            terminar(intento);
+            return;
+        }
+
+        // ---- Token expirado ----
+        // Se reintenta una sola vez con el token renovado, sin gastar un reintento. Los requests sin
+        // token (los de /oauth/token) no pasan por acá.
+        String authorization = request.headers().firstValue("Authorization").orElse(null);
+        if (status == 401 && !intento.tokenRenovado && authorization != null) {
+            logger.warn("401 Unauthorized → esperando token renovado...");
+            intento.tokenRenovado = true;
+            MercadoLibreAPI.tokenRechazado(authorization.substring(authorization.indexOf(' ') + 1))
+                    .thenAccept(renovado -> {
+                        if (renovado) {
+                            reintentar(intento, 0, true); // volverá a crear el request con token nuevo
+                        } else {
+                            terminar(intento);
+                        }
+                    });
+            return;
+        }
+
+        // ---- Error de concurrencia ----
+        if ((status == 409 || status == 423) && intento.reintentos < MAX_RETRIES) {
+            intento.reintentos++;
+            long waitMs = intento.proximaEspera();
+            logger.warn(status + " Conflict (KVS). Retry en " + waitMs + " ms...");
+            reintentar(intento, waitMs, false);
+            return;
+        }
+
+        // ---- Too Many Requests ----
+        if (status == 429) {
+            if (intento.reintentos429 >= MAX_RETRIES_429) {
+                logger.error("429 Too Many Requests: máximo de reintentos alcanzado");
+                terminar(intento);
+                return;
+            }
+            intento.reintentos429++;
+            long waitMs = Math.max(parseRetryAfter(response, 0), intento.proximaEspera());
+            logger.warn("429 Too Many Requests. Retry " + intento.reintentos429 + "/" + MAX_RETRIES_429 + " en "
+                    + waitMs + " ms...");
+            reintentar(intento, waitMs, false);
+            return;
+        }
+
+        // ---- Errores de servidor ----
+        if (status >= 500 && status < 600 && intento.reintentos < MAX_RETRIES) {
+            intento.reintentos++;
+            long waitMs = intento.proximaEspera();
+            logger.warn("5xx Error. Retry en " + waitMs + " ms...");
+            reintentar(intento, waitMs, false);
+            return;
+        }
+
+        // ---- Errores 400-499 no recuperables (o reintentos agotados) ----
+        terminar(intento);
+    }
+
+    /**
+     * Agrega el intento a la cola de pendientes, si el plazo y el presupuesto lo permiten (gratis: no usa
+     * presupuesto, como el reintento con el token renovado).
+     */
+    private void reintentar(Intento intento, long waitMs, boolean gratis) {
+        long cuando = System.currentTimeMillis() + waitMs;
+        if (cuando > intento.plazo) {
+            logger.warn("Sin reintento: vencería el plazo del request.");
+            terminar(intento);
+            return;
+        }
+        if (!gratis && !tomarPresupuesto()) {
+            terminar(intento);
+            return;
+        }
+        pendientes.put(new Reintento(intento, cuando));
+    }
+
+    private boolean tomarPresupuesto() {
+        while (true) {
+            long usados = reintentos.get();
+            if (usados >= REINTENTOS_MINIMOS + requests.get() * FRACCION_REINTENTOS) {
+                sinPresupuesto.incrementAndGet();
+                if (avisoPresupuesto.compareAndSet(false, true)) {
+                    logger.warn("Presupuesto de reintentos agotado (" + usados + " reintentos de " + requests.get()
+                            + " requests): los errores se devuelven sin reintentar.");
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return response;
+                return false;
+            }
+            if (reintentos.compareAndSet(usados, usados + 1)) {
+                return true;
             }
         }
+    }
 
-        return response;
+    private static void terminar(Intento intento) {
+        intento.resultado.complete(intento.ultima);
     }
 
-    private HttpResponse<String> handle429WithRetries(Supplier<HttpRequest> requestSupplier,
-            HttpResponse<String> lastResponse) {
-        for (int retry429 = 1; retry429 <= MAX_RETRIES_429; retry429++) {
+    private void despachar() {
+        while (true) {
             try {
-                long waitMs = parseRetryAfter(lastResponse, BASE_WAIT_MS);
-                logger.warn("429 Too Many Requests. Retry " + retry429 + "/" + MAX_RETRIES_429 + " en " + waitMs
-                        + " ms...");
-                Thread.sleep(waitMs);
+                enviar(pendientes.take().intento);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Error reenviando un request: " + e.getMessage());
+            }
+        }
+    }
 
-                rateLimiter.acquire();
-                HttpRequest request = requestSupplier.get();
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Un request con sus reintentos hasta ahora.
+     */
+    private final class Intento {
 
-                if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                    return response; // Éxito
-                }
+        final Supplier<HttpRequest> requestSupplier;
+        final long plazo;
+        final CompletableFuture<HttpResponse<String>> resultado = new CompletableFuture<>();
+        HttpResponse<String> ultima;
+        int reintentos;
+        int reintentos429;
+        boolean tokenRenovado;
+        long ultimaEspera;
 
-                if (response.statusCode() != 429) {
-                    return response; // Otro error, dejar que el loop principal lo maneje
-                }
+        Intento(Supplier<HttpRequest> requestSupplier, long plazo) {
+            this.requestSupplier = requestSupplier;
+            this.plazo = plazo;
+        }
 
-                lastResponse = response; // Seguir reintentando
+        long proximaEspera() {
+            long techo = Math.max(BASE_WAIT_MS + 1, ultimaEspera * 3);
+            ultimaEspera = Math.min(MAX_WAIT_MS, ThreadLocalRandom.current().nextLong(BASE_WAIT_MS, techo));
+            return ultimaEspera;
+        }
+    }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return lastResponse;
-            } catch (IOException e) {
-                logger.warn("IOException durante reintento 429: " + e.getMessage());
-                return lastResponse;
-            }
+    /**
+     * Entrada de la cola de pendientes: sale cuando llega su momento; a igual momento, primero el de plazo más
+     * cercano.
+     */
+    private record Reintento(Intento intento, long cuando) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(cuando - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed otro) {
+            Reintento o = (Reintento) otro;
+            int porMomento = Long.compare(cuando, o.cuando);
+            return porMomento != 0 ? porMomento : Long.compare(intento.plazo, o.intento.plazo);
         }
-        return lastResponse; // Máximo de reintentos alcanzado
     }
 
     private long parseRetryAfter(HttpResponse<String> response, long defaultMs) {
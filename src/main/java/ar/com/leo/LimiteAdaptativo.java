@@ -0,0 +1,102 @@
+package ar.com.leo;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Límite adaptativo de requests en curso a un servidor (estilo "gradient"), complementario al limitador de
+ * velocidad: este decide cuántos requests pueden estar esperando respuesta a la vez.
+ * <p>
+ * Se compara el promedio de la latencia de los últimos ~10 requests con la latencia base (la más baja vista,
+ * que sube de a poco para seguir un cambio duradero del servidor). Mientras el promedio no supere a la base en
+ * más de TOLERANCIA el servidor no está encolando, y el límite sube de a raíz del límite; si crece (el servidor
+ * empieza a encolar) el límite baja en la misma proporción, hasta la mitad por vez. Un request limitado o sin
+ * respuesta lo baja un 10%.
+ */
+public final class LimiteAdaptativo {
+
+    // Cuánto más que la latencia habitual se tolera antes de bajar el límite
+    private static final double TOLERANCIA = 1.5;
+    private static final double PESO_CORTO = 0.1;
+    // Con qué peso la base sigue al promedio cuando este está por encima (~500 requests)
+    private static final double PESO_BASE = 0.002;
+    // Fracción del nuevo valor que se aplica en cada respuesta (suaviza los saltos)
+    private static final double SUAVIZADO = 0.2;
+
+    private final int minimo;
+    private final int maximo;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition libre = lock.newCondition();
+    private double limite;
+    private int enCurso;
+    private double latenciaCorta;
+    private double latenciaBase;
+
+    public LimiteAdaptativo(int inicial, int minimo, int maximo) {
+        this.limite = inicial;
+        this.minimo = minimo;
+        this.maximo = maximo;
+    }
+
+    /**
+     * Espera a que haya lugar y ocupa uno. Devuelve el momento de inicio, que se pasa a liberar.
+     */
+    public long adquirir() throws InterruptedException {
+        lock.lock();
+        try {
+            while (enCurso >= (int) limite) {
+                libre.await();
+            }
+            enCurso++;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Libera el lugar ocupado en inicio. descartado: el request fue limitado por el servidor o no tuvo respuesta,
+     * así que su latencia no cuenta.
+     */
+    public void liberar(long inicio, boolean descartado) {
+        long latencia = System.nanoTime() - inicio;
+        lock.lock();
+        try {
+            int ocupados = enCurso--;
+            if (descartado) {
+                limite = Math.max(minimo, limite * 0.9);
+            } else {
+                latenciaCorta = promedio(latenciaCorta, latencia, PESO_CORTO);
+                latenciaBase = latenciaBase == 0 || latenciaCorta < latenciaBase ? latenciaCorta
+                        : promedio(latenciaBase, latenciaCorta, PESO_BASE);
+                // Con menos de la mitad ocupada la latencia no dice nada del límite: no se toca
+                if (ocupados >= limite / 2) {
+                    double gradiente = Math.max(0.5, Math.min(1.0, TOLERANCIA * latenciaBase / latenciaCorta));
+                    double nuevo = limite * gradiente + Math.sqrt(limite);
+                    limite = Math.max(minimo, Math.min(maximo, limite * (1 - SUAVIZADO) + nuevo * SUAVIZADO));
+                }
+            }
+            libre.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static double promedio(double anterior, double valor, double peso) {
+        return anterior == 0 ? valor : anterior * (1 - peso) + valor * peso;
+    }
+
+    /**
+     * Requests a la vez que se permiten ahora.
+     */
+    public int limite() {
+        lock.lock();
+        try {
+            return (int) limite;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -5,9 +5,13 @@ import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 public class Util {
 
@@ -26,6 +30,34 @@ public class Util {
         }
     }
 
+    /**
+     * Reemplaza destino por el archivo temporal (ya escrito por completo, normalmente en disco local).
+     * Si están en el mismo volumen es un rename atómico. Si no (carpeta de red, Google Drive), se copia
+     * de una vez a un temporal junto al destino y recién ahí se renombra, así el destino nunca queda a
+     * medio escribir.
+     */
+    public static void reemplazarArchivo(Path temporal, Path destino) throws IOException {
+        try {
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            // Distinto volumen: copiar primero junto al destino
+        }
+
+        Path vecino = destino.resolveSibling("~" + destino.getFileName() + ".tmp");
+        try {
+            Files.copy(temporal, vecino, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(vecino, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(vecino, destino, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(vecino);
+            Files.deleteIfExists(temporal);
+        }
+    }
+
     // Función que detecta si una fila está vacía
     public static boolean isEmptyRow(Row row) {
         if (row == null) {
@@ -0,0 +1,316 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.HttpClientes;
+import ar.com.leo.Util;
+import ar.com.leo.ml.model.HashesImagenes;
+import ar.com.leo.ml.model.Producto;
+import tools.jackson.databind.ObjectMapper;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static ar.com.leo.HttpRetryHandler.BASE_SECRET_DIR;
+
+/**
+ * Compara las imágenes de la carpeta de un SKU con las publicadas para contar las que todavía no se subieron.
+ * Cada imagen se reduce a un hash perceptual (HashPerceptual): la foto publicada es una copia redimensionada y
+ * recomprimida de la local, así que no alcanza con comparar bytes.
+ * <p>
+ * Las imágenes publicadas se descargan de a DESCARGAS_SIMULTANEAS (la versión que devuelve la API, de unos
+ * 500 px) y se decodifican en un pool aparte, uno por procesador. Los hashes de ambos lados se guardan en disco:
+ * en la siguiente ejecución solo se descargan las imágenes publicadas nuevas y se leen los archivos nuevos o
+ * modificados.
+ */
+final class ComparadorImagenes implements Closeable {
+
+    static final int DESCARGAS_SIMULTANEAS = 8;
+
+    private static final int TIMEOUT_SECONDS = 15;
+    // Plazo para comparar una fila (descargas y lecturas incluidas); si vence, la fila queda sin comparar
+    private static final long PLAZO_COMPARACION_SEGUNDOS = 120;
+    // Hashes de archivos locales que se tienen en memoria (y se guardan) como mucho
+    static final int MAX_LOCALES = 50_000;
+
+    private static final Path ARCHIVO = BASE_SECRET_DIR.resolveSibling("cache").resolve("hashes_imagenes.json");
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ExecutorService descargas = Executors.newFixedThreadPool(DESCARGAS_SIMULTANEAS,
+            hilo("descarga-imagenes"));
+    private final ExecutorService decodificadores = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), hilo("decodificacion-imagenes"));
+
+    private final Map<String, Long> publicadas;
+    // Hashes de archivos locales: los de ejecuciones anteriores que todavía no se usaron, y los usados o
+    // calculados en esta. Entre los dos no pasan de MAX_LOCALES; si se llega al tope los no usados no se guardan,
+    // así los archivos borrados o movidos dejan lugar a los nuevos
+    private final Map<String, long[]> localesAnteriores;
+    private final Map<String, long[]> localesUsados = new ConcurrentHashMap<>();
+    private volatile boolean localesLlenos;
+    // Hashes que se están calculando, para no repetir una descarga o lectura en curso (se quitan al terminar)
+    private final Map<String, CompletableFuture<Long>> enCurso = new ConcurrentHashMap<>();
+
+    private final AtomicLong descargadas = new AtomicLong();
+    private final AtomicLong leidas = new AtomicLong();
+    private final Set<Path> sinComparar = ConcurrentHashMap.newKeySet();
+
+    private ComparadorImagenes(HashesImagenes guardados) {
+        this.publicadas = new ConcurrentHashMap<>(guardados.publicadas);
+        this.localesAnteriores = new ConcurrentHashMap<>(guardados.locales);
+    }
+
+    /**
+     * Crea el comparador con los hashes de la ejecución anterior (si hay).
+     */
+    static ComparadorImagenes cargar() {
+        if (Files.exists(ARCHIVO)) {
+            try {
+                HashesImagenes guardados = mapper.readValue(ARCHIVO.toFile(), HashesImagenes.class);
+                if (guardados.version == HashesImagenes.VERSION && guardados.publicadas != null
+                        && guardados.locales != null) {
+                    return new ComparadorImagenes(guardados);
+                }
+            } catch (Exception e) {
+                AppLogger.warn("No se pudieron leer los hashes de imágenes " + ARCHIVO + ": " + e.getMessage());
+            }
+        }
+        return new ComparadorImagenes(new HashesImagenes());
+    }
+
+    /**
+     * Cantidad de archivos locales que no se parecen a ninguna de las imágenes publicadas, o -1 si no se pudo
+     * comparar (alguna imagen publicada no se pudo descargar o no se terminó a tiempo). Los archivos que no se
+     * pueden decodificar (WebP, dañados) no se cuentan.
+     */
+    int noPublicadas(List<IndexadorCarpetas.ArchivoLocal> archivos, List<Producto.Picture> imagenes) {
+        if (archivos.isEmpty()) {
+            return 0;
+        }
+        List<CompletableFuture<Long>> remotas = new ArrayList<>();
+        if (imagenes != null) {
+            for (Producto.Picture imagen : imagenes) {
+                remotas.add(hashPublicada(imagen));
+            }
+        }
+        List<CompletableFuture<Long>> propias = new ArrayList<>(archivos.size());
+        for (IndexadorCarpetas.ArchivoLocal archivo : archivos) {
+            propias.add(hashLocal(archivo));
+        }
+
+        try {
+            List<CompletableFuture<Long>> todas = new ArrayList<>(remotas);
+            todas.addAll(propias);
+            CompletableFuture.allOf(todas.toArray(new CompletableFuture<?>[0]))
+                    .get(PLAZO_COMPARACION_SEGUNDOS, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+
+        long[] hashesPublicadas = new long[remotas.size()];
+        for (int i = 0; i < hashesPublicadas.length; i++) {
+            hashesPublicadas[i] = remotas.get(i).join();
+            if (hashesPublicadas[i] == HashPerceptual.DESCONOCIDO) {
+                return -1;
+            }
+        }
+        int faltantes = 0;
+        for (int i = 0; i < propias.size(); i++) {
+            long hash = propias.get(i).join();
+            if (hash == HashPerceptual.DESCONOCIDO) {
+                sinComparar.add(archivos.get(i).ruta());
+                continue;
+            }
+            boolean publicada = false;
+            for (long hashPublicada : hashesPublicadas) {
+                if (HashPerceptual.parecidas(hash, hashPublicada)) {
+                    publicada = true;
+                    break;
+                }
+            }
+            if (!publicada) {
+                faltantes++;
+            }
+        }
+        return faltantes;
+    }
+
+    private CompletableFuture<Long> hashPublicada(Producto.Picture imagen) {
+        String url = imagen.secureUrl != null ? imagen.secureUrl : imagen.url;
+        String clave = imagen.id != null ? imagen.id : url;
+        if (clave == null) {
+            return CompletableFuture.completedFuture(HashPerceptual.DESCONOCIDO);
+        }
+        Long guardado = publicadas.get(clave);
+        if (guardado != null) {
+            return CompletableFuture.completedFuture(guardado);
+        }
+        return compartido("P|" + clave, () -> CompletableFuture
+                .supplyAsync(() -> descargar(url), descargas)
+                .thenApplyAsync(bytes -> {
+                    long hash = decodificar(bytes);
+                    if (hash != HashPerceptual.DESCONOCIDO) {
+                        publicadas.put(clave, hash);
+                    }
+                    return hash;
+                }, decodificadores));
+    }
+
+    private CompletableFuture<Long> hashLocal(IndexadorCarpetas.ArchivoLocal archivo) {
+        String clave = archivo.ruta().toString();
+        long[] guardado = localesUsados.get(clave);
+        if (guardado == null) {
+            guardado = localesAnteriores.remove(clave);
+            if (guardado != null) {
+                localesUsados.put(clave, guardado);
+            }
+        }
+        if (guardado != null && guardado[0] == archivo.tamano() && guardado[1] == archivo.fecha()) {
+            return CompletableFuture.completedFuture(guardado[2]);
+        }
+        return compartido("L|" + clave + "|" + archivo.fecha(), () -> CompletableFuture
+                .supplyAsync(() -> {
+                    long hash = leer(archivo.ruta());
+                    guardarLocal(clave, new long[] { archivo.tamano(), archivo.fecha(), hash });
+                    return hash;
+                }, decodificadores));
+    }
+
+    /**
+     * El cálculo en curso para clave, o uno nuevo; se quita de enCurso al terminar (lo que queda es el hash
+     * guardado en publicadas o en los locales).
+     */
+    private CompletableFuture<Long> compartido(String clave, Supplier<CompletableFuture<Long>> calculo) {
+        CompletableFuture<Long> hash = enCurso.computeIfAbsent(clave, k -> calculo.get());
+        // Fuera de computeIfAbsent: si ya terminó, whenComplete corre acá mismo
+        hash.whenComplete((h, e) -> enCurso.remove(clave, hash));
+        return hash;
+    }
+
+    private void guardarLocal(String clave, long[] datos) {
+        if (localesUsados.containsKey(clave) || localesUsados.size() + localesAnteriores.size() < MAX_LOCALES) {
+            localesUsados.put(clave, datos);
+        } else {
+            localesLlenos = true;
+        }
+    }
+
+    /**
+     * Cuerpo de la imagen publicada, o null si no se pudo descargar.
+     */
+    private byte[] descargar(String url) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .timeout(Duration.ofSeconds(TIMEOUT_SECONDS))
+                    .header("Accept", "image/jpeg,image/png,image/*;q=0.8")
+                    .GET()
+                    .build();
+            HttpResponse<byte[]> response = HttpClientes.conRedirecciones()
+                    .send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                AppLogger.warn("No se pudo descargar la imagen " + url + ": status " + response.statusCode());
+                return null;
+            }
+            descargadas.incrementAndGet();
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            AppLogger.warn("No se pudo descargar la imagen " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long decodificar(byte[] bytes) {
+        if (bytes == null) {
+            return HashPerceptual.DESCONOCIDO;
+        }
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            return entrada != null ? HashPerceptual.calcular(entrada) : HashPerceptual.DESCONOCIDO;
+        } catch (Exception e) {
+            return HashPerceptual.DESCONOCIDO;
+        }
+    }
+
+    private long leer(Path archivo) {
+        leidas.incrementAndGet();
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(archivo.toFile())) {
+            return entrada != null ? HashPerceptual.calcular(entrada) : HashPerceptual.DESCONOCIDO;
+        } catch (Exception e) {
+            return HashPerceptual.DESCONOCIDO;
+        }
+    }
+
+    /**
+     * Informa lo hecho, guarda los hashes y libera los hilos.
+     */
+    @Override
+    public void close() {
+        descargas.shutdownNow();
+        decodificadores.shutdownNow();
+        AppLogger.info("Comparación con imágenes publicadas: " + descargadas.get() + " imágenes descargadas, "
+                + leidas.get() + " archivos leídos, " + sinComparar.size() + " archivos que no se pudieron comparar.");
+        if (descargadas.get() == 0 && leidas.get() == 0) {
+            return;
+        }
+        HashesImagenes hashes = new HashesImagenes();
+        hashes.publicadas = publicadas;
+        hashes.locales = new HashMap<>(localesUsados);
+        if (localesLlenos) {
+            AppLogger.info("Se alcanzó el máximo de " + MAX_LOCALES + " hashes de archivos guardados: se descartan "
+                    + localesAnteriores.size() + " de archivos que no se usaron en esta ejecución.");
+        } else {
+            localesAnteriores.forEach(hashes.locales::putIfAbsent);
+        }
+        try {
+            Files.createDirectories(ARCHIVO.getParent());
+            // Se escribe aparte y se reemplaza de una vez (como el índice de carpetas)
+            Path temporal = Files.createTempFile(ARCHIVO.getParent(), "hashes-", ".tmp");
+            try {
+                mapper.writeValue(temporal.toFile(), hashes);
+                Util.reemplazarArchivo(temporal, ARCHIVO);
+            } finally {
+                Files.deleteIfExists(temporal);
+            }
+        } catch (Exception e) {
+            AppLogger.warn("No se pudieron guardar los hashes de imágenes " + ARCHIVO + ": " + e.getMessage());
+        }
+    }
+
+    private static ThreadFactory hilo(String nombre) {
+        return r -> {
+            Thread t = new Thread(r, nombre);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+}
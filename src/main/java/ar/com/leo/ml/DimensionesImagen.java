@@ -0,0 +1,154 @@
+package ar.com.leo.ml;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lee el ancho y alto de una imagen (JPEG, PNG, WebP, GIF, BMP) desde los bytes de la cabecera, sin decodificar
+ * los píxeles. Se lee por bloques chicos en la posición que hace falta, así en la mayoría de los archivos
+ * alcanza con una o dos lecturas aunque la imagen pese varios MB.
+ * Las dimensiones van empaquetadas en un long (ancho << 32 | alto) para guardarlas sin objetos.
+ */
+final class DimensionesImagen {
+
+    // Resolución mínima que acepta MercadoLibre para las imágenes de una publicación
+    static final int MINIMO_PX = 500;
+    static final long DESCONOCIDA = -1L;
+
+    // Hasta dónde se buscan los marcadores de un JPEG (EXIF con miniatura puede ocupar decenas de KB)
+    private static final long MAX_BUSQUEDA_JPEG = 1 << 20;
+
+    private DimensionesImagen() {
+    }
+
+    /**
+     * Dimensiones de la imagen, o DESCONOCIDA si el formato no se reconoce o la cabecera está incompleta.
+     */
+    static long leer(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            LectorPosicional in = new LectorPosicional(canal);
+            int b0 = in.u8(0);
+            int b1 = in.u8(1);
+
+            if (b0 == 0xFF && b1 == 0xD8) {
+                return leerJpeg(in);
+            }
+            if (in.u32be(0) == 0x89504E47L && in.u32be(12) == 0x49484452L) { // PNG + IHDR
+                return empaquetar(in.u32be(16), in.u32be(20));
+            }
+            if (in.u32be(0) == 0x52494646L && in.u32be(8) == 0x57454250L) { // RIFF....WEBP
+                return leerWebp(in);
+            }
+            if (b0 == 'G' && b1 == 'I' && in.u8(2) == 'F') {
+                return empaquetar(in.u16le(6), in.u16le(8));
+            }
+            if (b0 == 'B' && b1 == 'M') {
+                if (in.u32le(14) == 12) { // BITMAPCOREHEADER (16 bits por lado)
+                    return empaquetar(in.u16le(18), in.u16le(20));
+                }
+                long ancho = in.u32le(18);
+                long alto = in.u32le(22);
+                if (ancho < 0 || alto < 0) {
+                    return DESCONOCIDA;
+                }
+                // Alto negativo (con signo): la imagen se guarda de arriba hacia abajo
+                return empaquetar((int) ancho, Math.abs((int) alto));
+            }
+            return DESCONOCIDA;
+        }
+    }
+
+    /**
+     * true si la imagen cumple la resolución mínima. Si no se pudieron leer las dimensiones se cuenta igual
+     * (no se descarta una imagen sin estar seguro).
+     */
+    static boolean apta(long dimensiones) {
+        return dimensiones == DESCONOCIDA || (ancho(dimensiones) >= MINIMO_PX && alto(dimensiones) >= MINIMO_PX);
+    }
+
+    static int ancho(long dimensiones) {
+        return (int) (dimensiones >>> 32);
+    }
+
+    static int alto(long dimensiones) {
+        return (int) dimensiones;
+    }
+
+    private static long empaquetar(long ancho, long alto) {
+        if (ancho <= 0 || alto <= 0 || ancho > Integer.MAX_VALUE || alto > Integer.MAX_VALUE) {
+            return DESCONOCIDA;
+        }
+        return (ancho << 32) | alto;
+    }
+
+    /**
+     * Recorre los segmentos del JPEG (saltando cada uno por su largo) hasta el SOF, que tiene las dimensiones.
+     */
+    private static long leerJpeg(LectorPosicional in) throws IOException {
+        long pos = 2;
+        while (pos < MAX_BUSQUEDA_JPEG) {
+            if (in.u8(pos) != 0xFF) {
+                return DESCONOCIDA;
+            }
+            int marcador = in.u8(pos + 1);
+            // Bytes de relleno (0xFF repetidos) antes del marcador
+            while (marcador == 0xFF) {
+                pos++;
+                marcador = in.u8(pos + 1);
+            }
+            if (marcador < 0) {
+                return DESCONOCIDA;
+            }
+            pos += 2;
+            if (marcador == 0x01 || (marcador >= 0xD0 && marcador <= 0xD8)) {
+                // Marcadores sin segmento
+                continue;
+            }
+            if (marcador == 0xD9 || marcador == 0xDA) {
+                // Fin de la imagen o comienzo de los datos sin haber encontrado el SOF
+                return DESCONOCIDA;
+            }
+            int largo = in.u16be(pos);
+            if (largo < 2) {
+                return DESCONOCIDA;
+            }
+            // SOF0..SOF15 (C4, C8 y CC son otros segmentos): precisión, alto, ancho
+            if (marcador >= 0xC0 && marcador <= 0xCF && marcador != 0xC4 && marcador != 0xC8 && marcador != 0xCC) {
+                return empaquetar(in.u16be(pos + 5), in.u16be(pos + 3));
+            }
+            pos += largo;
+        }
+        return DESCONOCIDA;
+    }
+
+    private static long leerWebp(LectorPosicional in) throws IOException {
+        long chunk = in.u32be(12);
+        if (chunk == 0x56503820L) { // "VP8 " (con pérdida): 14 bits por lado después del código de inicio
+            int ancho = in.u16le(26);
+            int alto = in.u16le(28);
+            if (ancho < 0 || alto < 0) {
+                return DESCONOCIDA;
+            }
+            return empaquetar(ancho & 0x3FFF, alto & 0x3FFF);
+        }
+        if (chunk == 0x5650384CL && in.u8(20) == 0x2F) { // "VP8L" (sin pérdida): 14 bits por lado, menos 1
+            long bits = in.u32le(21);
+            if (bits < 0) {
+                return DESCONOCIDA;
+            }
+            return empaquetar((bits & 0x3FFF) + 1, ((bits >>> 14) & 0x3FFF) + 1);
+        }
+        if (chunk == 0x56503858L) { // "VP8X" (extendido): lienzo de 24 bits por lado, menos 1
+            long ancho = in.u24le(24);
+            long alto = in.u24le(27);
+            if (ancho < 0 || alto < 0) {
+                return DESCONOCIDA;
+            }
+            return empaquetar(ancho + 1, alto + 1);
+        }
+        return DESCONOCIDA;
+    }
+
+}
@@ -0,0 +1,170 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Disyuntor (circuit breaker) para las páginas de publicaciones. Cuando MercadoLibre empieza a limitar (403/424)
+ * o a fallar (5xx) no sirve que cada hilo espere por su cuenta y vuelva a pedir: el servidor recibe una tanda de
+ * requests por minuto y sigue limitando.
+ * <p>
+ * Después de UMBRAL respuestas limitadas seguidas el disyuntor se abre y todos los hilos quedan esperando su turno
+ * sin enviar nada. Pasada la espera, un solo hilo manda un sondeo: si no lo limitan se cierra y el resto sigue a
+ * la mitad de la velocidad configurada, que vuelve a subir de a poco; si lo limitan, se abre de nuevo por el doble
+ * de tiempo. Si después de MAX_APERTURAS sondeos seguidos sigue limitado se rinde y el resto de las páginas de la
+ * ejecución quedan con error.
+ */
+final class DisyuntorScraping {
+
+    enum Turno {
+        // Circuito cerrado: request normal
+        NORMAL,
+        // El único request que se deja pasar con el circuito abierto
+        SONDEO,
+        // Se agotaron los sondeos: no enviar
+        RECHAZADO
+    }
+
+    private enum Estado {
+        CERRADO, ABIERTO, SONDEANDO, AGOTADO
+    }
+
+    // Respuestas limitadas seguidas que abren el circuito
+    static final int UMBRAL = 5;
+    private static final long ESPERA_INICIAL_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final long ESPERA_MAXIMA_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_APERTURAS = 6;
+    // Al cerrarse se retoma a esta fracción de la velocidad configurada, y se sube un 25% cada SUBIDA_CADA éxitos
+    private static final double FRACCION_REANUDACION = 0.5;
+    private static final int SUBIDA_CADA = 50;
+
+    private final RateLimiter rateLimiter;
+    private final double velocidad;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition cambio = lock.newCondition();
+    private Estado estado = Estado.CERRADO;
+    private int limitadasSeguidas;
+    private int aperturas;
+    private long espera;
+    private long reabrir;
+    private int exitosDesdeSubida;
+
+    DisyuntorScraping(RateLimiter rateLimiter, double velocidad) {
+        this.rateLimiter = rateLimiter;
+        this.velocidad = velocidad;
+    }
+
+    /**
+     * Espera hasta que se pueda enviar un request (enseguida si el circuito está cerrado).
+     */
+    Turno esperarTurno() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                switch (estado) {
+                    case CERRADO:
+                        return Turno.NORMAL;
+                    case AGOTADO:
+                        return Turno.RECHAZADO;
+                    case ABIERTO:
+                        long faltan = reabrir - System.currentTimeMillis();
+                        if (faltan <= 0) {
+                            estado = Estado.SONDEANDO;
+                            AppLogger.info("Enviando un request de prueba...");
+                            return Turno.SONDEO;
+                        }
+                        cambio.await(faltan, TimeUnit.MILLISECONDS);
+                        break;
+                    case SONDEANDO:
+                        cambio.await();
+                        break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Informa la respuesta del request enviado con el turno (limitada: 403/424 o 5xx).
+     */
+    void resultado(Turno turno, boolean limitada) {
+        lock.lock();
+        try {
+            if (turno == Turno.SONDEO) {
+                if (limitada) {
+                    abrir();
+                } else {
+                    cerrar();
+                }
+                cambio.signalAll();
+            } else if (estado == Estado.CERRADO) {
+                if (limitada) {
+                    if (++limitadasSeguidas >= UMBRAL) {
+                        aperturas = 0;
+                        abrir();
+                    }
+                } else {
+                    limitadasSeguidas = 0;
+                    subirVelocidad();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * El request del turno no llegó a tener respuesta (error de red): si era el sondeo, otro hilo puede probar.
+     */
+    void liberar(Turno turno) {
+        if (turno != Turno.SONDEO) {
+            return;
+        }
+        lock.lock();
+        try {
+            estado = Estado.ABIERTO;
+            cambio.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void abrir() {
+        if (++aperturas > MAX_APERTURAS) {
+            estado = Estado.AGOTADO;
+            AppLogger.warn("MercadoLibre sigue limitando los requests: no se verifican más videos en esta "
+                    + "ejecución.");
+            return;
+        }
+        espera = aperturas == 1 ? ESPERA_INICIAL_MS : Math.min(espera * 2, ESPERA_MAXIMA_MS);
+        reabrir = System.currentTimeMillis() + espera;
+        estado = Estado.ABIERTO;
+        AppLogger.warn("MercadoLibre limita o no responde: se pausan las verificaciones de video por "
+                + espera / 1000 + " s.");
+    }
+
+    private void cerrar() {
+        estado = Estado.CERRADO;
+        limitadasSeguidas = 0;
+        aperturas = 0;
+        exitosDesdeSubida = 0;
+        rateLimiter.setRate(velocidad * FRACCION_REANUDACION);
+        AppLogger.info("Se retoman las verificaciones de video a " + String.format("%.1f", rateLimiter.getRate())
+                + " requests por segundo.");
+    }
+
+    private void subirVelocidad() {
+        if (rateLimiter.getRate() >= velocidad || ++exitosDesdeSubida < SUBIDA_CADA) {
+            return;
+        }
+        exitosDesdeSubida = 0;
+        rateLimiter.setRate(Math.min(velocidad, rateLimiter.getRate() * 1.25));
+    }
+
+}
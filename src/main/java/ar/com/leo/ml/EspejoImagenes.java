@@ -0,0 +1,221 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.HttpClientes;
+import ar.com.leo.Util;
+import ar.com.leo.ml.model.Producto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Descarga las imágenes publicadas a la carpeta de imágenes, para los SKUs que no tienen ninguna.
+ * Cada imagen va a {carpeta}/{SKU}/{SKU}_{id}.{ext}, así la encuentra el indexado como cualquier otra.
+ * <p>
+ * El cuerpo de la respuesta se escribe directo a disco (BodyHandlers.ofFile), sin pasar por un byte[], así
+ * decenas de miles de imágenes no ocupan heap. Se escribe en un .part junto al destino y recién completo se
+ * renombra: una imagen a medio bajar nunca se cuenta, y en la siguiente ejecución se continúa desde lo bajado
+ * (Range). Las que ya existen no se vuelven a bajar.
+ */
+final class EspejoImagenes implements Closeable {
+
+    // Descargas simultáneas contra un mismo servidor (todas las imágenes suelen venir del mismo CDN)
+    static final int DESCARGAS_POR_HOST = 6;
+
+    private static final int HILOS = 16;
+    private static final int TIMEOUT_SECONDS = 30;
+    private static final String PARCIAL = ".part";
+
+    private final Path carpeta;
+    private final ExecutorService descargas = Executors.newFixedThreadPool(HILOS, r -> {
+        Thread t = new Thread(r, "espejo-imagenes");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, Semaphore> porHost = new ConcurrentHashMap<>();
+    // Varias filas pueden ser del mismo SKU: cada destino se baja una sola vez
+    private final Map<Path, Future<Boolean>> enCurso = new ConcurrentHashMap<>();
+
+    private final AtomicLong bajadas = new AtomicLong();
+    private final AtomicLong existentes = new AtomicLong();
+    private final AtomicLong fallidas = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    EspejoImagenes(Path carpeta) {
+        this.carpeta = carpeta;
+    }
+
+    /**
+     * Descarga las imágenes de la publicación a la carpeta del SKU y devuelve cuántas quedaron en ella
+     * (bajadas ahora o en una ejecución anterior).
+     */
+    int descargar(String sku, List<Producto.Picture> imagenes) {
+        String nombreSku = nombreSeguro(sku);
+        Path carpetaSku = carpeta.resolve(nombreSku);
+        try {
+            Files.createDirectories(carpetaSku);
+        } catch (IOException e) {
+            AppLogger.warn("No se pudo crear la carpeta " + carpetaSku + ": " + e.getMessage());
+            return 0;
+        }
+
+        List<Future<Boolean>> pendientes = new ArrayList<>(imagenes.size());
+        for (Producto.Picture imagen : imagenes) {
+            String url = imagen.secureUrl != null ? imagen.secureUrl : imagen.url;
+            if (url == null) {
+                continue;
+            }
+            Path destino = carpetaSku.resolve(nombreSku + "_" + nombreSeguro(imagen.id != null ? imagen.id
+                    : Integer.toHexString(url.hashCode())) + extension(url));
+            pendientes.add(enCurso.computeIfAbsent(destino,
+                    d -> descargas.submit(() -> bajar(URI.create(url), destino))));
+        }
+
+        int presentes = 0;
+        for (Future<Boolean> pendiente : pendientes) {
+            try {
+                if (pendiente.get()) {
+                    presentes++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                fallidas.incrementAndGet();
+            }
+        }
+        return presentes;
+    }
+
+    /**
+     * true si al terminar el destino existe (ya estaba o se bajó completo).
+     */
+    private boolean bajar(URI uri, Path destino) throws IOException, InterruptedException {
+        if (Files.exists(destino)) {
+            existentes.incrementAndGet();
+            return true;
+        }
+        Path parcial = destino.resolveSibling(destino.getFileName() + PARCIAL);
+        long yaBajado = Files.exists(parcial) ? Files.size(parcial) : 0;
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(Duration.ofSeconds(TIMEOUT_SECONDS))
+                .GET();
+        if (yaBajado > 0) {
+            builder.header("Range", "bytes=" + yaBajado + "-");
+        }
+
+        Semaphore limite = porHost.computeIfAbsent(String.valueOf(uri.getHost()),
+                host -> new Semaphore(DESCARGAS_POR_HOST));
+        HttpResponse<Path> response;
+        limite.acquire();
+        try {
+            // 206: continúa el .part; 200: el servidor manda todo (o no se pidió rango), se escribe de cero
+            response = HttpClientes.conRedirecciones().send(builder.build(), info -> switch (info.statusCode()) {
+                case 206 -> HttpResponse.BodySubscribers.ofFile(parcial, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                case 200 -> HttpResponse.BodySubscribers.ofFile(parcial, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                default -> HttpResponse.BodySubscribers.replacing(null);
+            });
+        } finally {
+            limite.release();
+        }
+
+        int status = response.statusCode();
+        if (status == 416) {
+            // El rango pedido no existe (el .part ya estaba completo o es de otra imagen): se baja de cero la
+            // próxima vez
+            Files.deleteIfExists(parcial);
+            fallidas.incrementAndGet();
+            return false;
+        }
+        if (status != 200 && status != 206) {
+            AppLogger.warn("No se pudo descargar la imagen " + uri + ": status " + status);
+            fallidas.incrementAndGet();
+            return false;
+        }
+
+        long esperado = tamanoTotal(response, status == 206 ? yaBajado : 0);
+        long tamano = Files.size(parcial);
+        if (esperado >= 0 && tamano != esperado) {
+            // Cortada a mitad: queda el .part para continuar en la próxima ejecución
+            AppLogger.warn("Descarga incompleta de " + uri + " (" + tamano + " de " + esperado + " bytes).");
+            fallidas.incrementAndGet();
+            return false;
+        }
+        Util.reemplazarArchivo(parcial, destino);
+        bajadas.incrementAndGet();
+        bytes.addAndGet(tamano - (status == 206 ? yaBajado : 0));
+        return true;
+    }
+
+    /**
+     * Tamaño completo de la imagen según la respuesta (Content-Range o Content-Length), o -1 si no se sabe.
+     */
+    private static long tamanoTotal(HttpResponse<?> response, long desde) {
+        String rango = response.headers().firstValue("Content-Range").orElse(null);
+        if (rango != null) {
+            int barra = rango.lastIndexOf('/');
+            if (barra >= 0 && !rango.endsWith("*")) {
+                try {
+                    return Long.parseLong(rango.substring(barra + 1).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        long largo = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        return largo >= 0 ? desde + largo : -1;
+    }
+
+    private static String extension(String url) {
+        int fin = url.indexOf('?');
+        String ruta = fin >= 0 ? url.substring(0, fin) : url;
+        int punto = ruta.lastIndexOf('.');
+        if (punto > ruta.lastIndexOf('/')) {
+            String extension = ruta.substring(punto).toLowerCase();
+            if (extension.equals(".jpg") || extension.equals(".jpeg") || extension.equals(".png")
+                    || extension.equals(".webp") || extension.equals(".gif")) {
+                return extension;
+            }
+        }
+        return ".jpg";
+    }
+
+    /**
+     * El texto sin caracteres que no van en un nombre de archivo (ni separadores de ruta).
+     */
+    private static String nombreSeguro(String id) {
+        return id.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    @Override
+    public void close() {
+        descargas.shutdownNow();
+        if (bajadas.get() + existentes.get() + fallidas.get() > 0) {
+            AppLogger.info("Imágenes publicadas descargadas a la carpeta: " + bajadas.get() + " nuevas ("
+                    + bytes.get() / 1024 + " KB), " + existentes.get() + " ya estaban, " + fallidas.get()
+                    + " fallidas.");
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.ml.model.ProductoData;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exporta las mismas columnas del reporte en CSV y/o JSONL (opcionalmente gzip), sin pasar por POI.
+ * Cada fila se agrega apenas queda completa y los archivos se vuelcan a disco como mucho cada
+ * INTERVALO_FLUSH_MS, así los resultados parciales se pueden leer mientras el proceso sigue corriendo.
+ */
+final class ExportadorColumnar implements Closeable {
+
+    private static final long INTERVALO_FLUSH_MS = 1000;
+    private static final int TAMANIO_BUFFER = 64 * 1024;
+
+    // Claves JSON equivalentes a ReporteExcel.encabezados(true)
+    private static final String[] CLAVES_JSON = { "estado", "mla", "imagenes", "videos", "sku", "url",
+            "tipo_publicacion", "imagenes_en_carpeta", "videos_en_carpeta", "conclusion_imagenes",
+            "conclusion_videos", "imagenes_no_publicadas" };
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Writer csv;
+    private final Writer jsonl;
+    private final int columnas;
+    private long ultimoFlush = System.currentTimeMillis();
+    private int filas;
+
+    /**
+     * base es la ruta sin extensión de los archivos a generar (se agrega .csv / .jsonl y .gz).
+     */
+    ExportadorColumnar(Path base, boolean exportarCsv, boolean exportarJsonl, boolean gzip, boolean conNoPublicadas)
+            throws IOException {
+        String[] encabezados = ReporteExcel.encabezados(conNoPublicadas);
+        Writer csvWriter = null;
+        Writer jsonlWriter = null;
+        try {
+            if (exportarCsv) {
+                csvWriter = abrir(base, ".csv", gzip);
+                escribirLineaCsv(csvWriter, encabezados);
+            }
+            if (exportarJsonl) {
+                jsonlWriter = abrir(base, ".jsonl", gzip);
+            }
+        } catch (IOException e) {
+            if (csvWriter != null) {
+                csvWriter.close();
+            }
+            throw e;
+        }
+        this.csv = csvWriter;
+        this.jsonl = jsonlWriter;
+        this.columnas = encabezados.length;
+    }
+
+    synchronized void escribir(ProductoData p) throws IOException {
+        Object[] valores = Arrays.copyOf(valores(p), columnas);
+
+        if (csv != null) {
+            String[] textos = new String[valores.length];
+            for (int i = 0; i < valores.length; i++) {
+                textos[i] = valores[i] != null ? valores[i].toString() : "";
+            }
+            escribirLineaCsv(csv, textos);
+        }
+
+        if (jsonl != null) {
+            Map<String, Object> fila = new LinkedHashMap<>();
+            for (int i = 0; i < valores.length; i++) {
+                fila.put(CLAVES_JSON[i], valores[i]);
+            }
+            jsonl.write(mapper.writeValueAsString(fila));
+            jsonl.write('\n');
+        }
+
+        filas++;
+        long ahora = System.currentTimeMillis();
+        if (ahora - ultimoFlush >= INTERVALO_FLUSH_MS) {
+            flush();
+            ultimoFlush = ahora;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException error = null;
+        for (Writer writer : new Writer[] { csv, jsonl }) {
+            if (writer == null) {
+                continue;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        AppLogger.info("Exportación columnar finalizada: " + filas + " filas.");
+    }
+
+    private void flush() throws IOException {
+        if (csv != null) {
+            csv.flush();
+        }
+        if (jsonl != null) {
+            jsonl.flush();
+        }
+    }
+
+    /**
+     * Valores de todas las columnas del reporte, en el orden de ReporteExcel.encabezados(true).
+     * Las columnas de carpetas quedan vacías si el SKU no se pudo buscar (igual que en el Excel).
+     */
+    private static Object[] valores(ProductoData p) {
+        boolean conCarpetas = p.conclusionImagenes != null;
+        return new Object[] { p.status, ReporteExcel.mlaDisplay(p), p.cantidadImagenes, p.tieneVideo, p.sku,
+                p.permalink, p.tipoPublicacion, conCarpetas ? p.imagenesCarpeta : null,
+                conCarpetas ? p.videosCarpeta : null, p.conclusionImagenes, p.conclusionVideos,
+                p.imagenesNoPublicadas >= 0 ? p.imagenesNoPublicadas : null };
+    }
+
+    private static Writer abrir(Path base, String extension, boolean gzip) throws IOException {
+        Path archivo = base.resolveSibling(base.getFileName() + extension + (gzip ? ".gz" : ""));
+        OutputStream out = Files.newOutputStream(archivo);
+        if (gzip) {
+            // syncFlush: cada flush deja un bloque completo, el .gz parcial se puede descomprimir
+            out = new GZIPOutputStream(out, TAMANIO_BUFFER, true);
+        }
+        AppLogger.info("Exportando a " + archivo + "...");
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), TAMANIO_BUFFER);
+    }
+
+    private static void escribirLineaCsv(Writer writer, String[] campos) throws IOException {
+        for (int i = 0; i < campos.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String campo = campos[i] != null ? campos[i] : "";
+            boolean comillas = campo.indexOf(',') >= 0 || campo.indexOf('"') >= 0 || campo.indexOf('\n') >= 0
+                    || campo.indexOf('\r') >= 0;
+            if (comillas) {
+                writer.write('"');
+                writer.write(campo.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(campo);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+}
@@ -0,0 +1,175 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.Util;
+import ar.com.leo.ml.model.TokensML;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Tokens de la API de MercadoLibre. Los hilos que hacen requests solo leen el token vigente (una referencia
+ * atómica, sin lock); la renovación la hace un hilo propio antes de que venza, y recién después guarda el archivo.
+ * Si el token vence igual (la renovación falló, la máquina estuvo suspendida) la siguiente lectura pide una
+ * renovación y sigue con el token que hay: la espera queda solo para el request que recibe un 401.
+ */
+final class GestorTokens {
+
+    private static final Logger logger = LogManager.getLogger(GestorTokens.class);
+
+    // Se renueva un 10% de la vida del token antes de que venza, como mucho 10 minutos antes
+    private static final long ANTICIPO_MAXIMO_MS = TimeUnit.MINUTES.toMillis(10);
+    // Espera entre renovaciones fallidas
+    private static final long REINTENTO_MS = TimeUnit.SECONDS.toMillis(30);
+    // Lo que espera un request rechazado con 401 a que se renueve el token
+    private static final long ESPERA_RENOVACION_SEGUNDOS = 30;
+
+    private final Path archivo;
+    private final ObjectMapper mapper;
+    private final UnaryOperator<TokensML> renovador;
+
+    private final AtomicReference<TokensML> actual = new AtomicReference<>();
+    // Renovación en curso: los pedidos simultáneos esperan la misma
+    private final AtomicReference<CompletableFuture<TokensML>> renovacion = new AtomicReference<>();
+    private volatile long noAntesDe;
+
+    // Solo se usa desde el hilo de renovación
+    private ScheduledFuture<?> programada;
+
+    private final ScheduledExecutorService hilo = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "renovacion-tokens");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param renovador a partir de los tokens vigentes devuelve los nuevos (con issuedAt), o lanza si no pudo
+     */
+    GestorTokens(Path archivo, ObjectMapper mapper, UnaryOperator<TokensML> renovador) {
+        this.archivo = archivo;
+        this.mapper = mapper;
+        this.renovador = renovador;
+    }
+
+    /**
+     * Publica los tokens (leídos del archivo u obtenidos con una autorización nueva) y programa su renovación.
+     */
+    void publicar(TokensML tokens) {
+        actual.set(tokens);
+        noAntesDe = 0;
+        hilo.execute(() -> programar(tokens));
+    }
+
+    String accessToken() {
+        TokensML tokens = actual.get();
+        if (vencePronto(tokens) && System.currentTimeMillis() >= noAntesDe) {
+            renovar();
+        }
+        return tokens.accessToken;
+    }
+
+    /**
+     * Se llama cuando la API rechazó accessToken (401). Se completa enseguida si ya hay uno más nuevo, y si no
+     * cuando termina la renovación (sin bloquear al que llama). true si hay un token distinto para reintentar.
+     */
+    CompletableFuture<Boolean> rechazado(String accessToken) {
+        if (!Objects.equals(actual.get().accessToken, accessToken)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (System.currentTimeMillis() < noAntesDe) {
+            // La última renovación falló hace poco: no tiene sentido volver a intentar para cada request
+            return CompletableFuture.completedFuture(false);
+        }
+        return renovar()
+                .thenApply(nuevos -> !Objects.equals(nuevos.accessToken, accessToken))
+                .completeOnTimeout(false, ESPERA_RENOVACION_SEGUNDOS, TimeUnit.SECONDS)
+                .exceptionally(e -> false);
+    }
+
+    /**
+     * Guarda los tokens en el archivo (se escriben aparte y se reemplaza de una vez).
+     */
+    void guardar(TokensML tokens) {
+        try {
+            Files.createDirectories(archivo.getParent());
+            Path temporal = Files.createTempFile(archivo.getParent(), "tokens-", ".tmp");
+            try {
+                mapper.writerWithDefaultPrettyPrinter().writeValue(temporal.toFile(), tokens);
+                Util.reemplazarArchivo(temporal, archivo);
+            } finally {
+                Files.deleteIfExists(temporal);
+            }
+            logger.info("ML - Tokens guardados en " + archivo);
+        } catch (Exception e) {
+            logger.warn("Error guardando tokens ML: " + e.getMessage());
+        }
+    }
+
+    private CompletableFuture<TokensML> renovar() {
+        while (true) {
+            CompletableFuture<TokensML> enCurso = renovacion.get();
+            if (enCurso != null) {
+                return enCurso;
+            }
+            CompletableFuture<TokensML> nueva = new CompletableFuture<>();
+            if (renovacion.compareAndSet(null, nueva)) {
+                hilo.execute(() -> ejecutar(nueva));
+                return nueva;
+            }
+        }
+    }
+
+    private void ejecutar(CompletableFuture<TokensML> resultado) {
+        logger.info("ML - Renovando access token...");
+        try {
+            TokensML nuevos = renovador.apply(actual.get());
+            actual.set(nuevos);
+            noAntesDe = 0;
+            renovacion.set(null);
+            resultado.complete(nuevos);
+            logger.info("ML - Token renovado correctamente.");
+            programar(nuevos);
+            guardar(nuevos);
+        } catch (Exception e) {
+            logger.warn("ML - Error al renovar token: " + e.getMessage());
+            noAntesDe = System.currentTimeMillis() + REINTENTO_MS;
+            renovacion.set(null);
+            resultado.completeExceptionally(e);
+            reprogramar(REINTENTO_MS);
+        }
+    }
+
+    private void programar(TokensML tokens) {
+        reprogramar(vencimiento(tokens) - anticipo(tokens) - System.currentTimeMillis());
+    }
+
+    private void reprogramar(long demoraMs) {
+        if (programada != null) {
+            programada.cancel(false);
+        }
+        programada = hilo.schedule(this::renovar, Math.max(0, demoraMs), TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean vencePronto(TokensML tokens) {
+        return System.currentTimeMillis() >= vencimiento(tokens) - anticipo(tokens);
+    }
+
+    private static long vencimiento(TokensML tokens) {
+        return tokens.issuedAt + tokens.expiresIn * 1000;
+    }
+
+    private static long anticipo(TokensML tokens) {
+        return Math.min(ANTICIPO_MAXIMO_MS, tokens.expiresIn * 1000 / 10);
+    }
+
+}
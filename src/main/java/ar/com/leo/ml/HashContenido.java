@@ -0,0 +1,75 @@
+package ar.com.leo.ml;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Hash de 64 bits del contenido de un archivo, para reconocer copias del mismo archivo con otro nombre.
+ * No es criptográfico (no hace falta: solo se comparan archivos del mismo SKU y del mismo tamaño): mezcla de a
+ * 8 bytes con las constantes de xxHash64. El archivo se lee mapeado en memoria, por tramos, sin copiarlo a un
+ * buffer propio.
+ */
+final class HashContenido {
+
+    // 0 queda reservado para "sin calcular" en el índice
+    static final long SIN_CALCULAR = 0L;
+
+    // Tramo mapeado de una vez (un archivo más grande se recorre en varios)
+    private static final long TRAMO = 64L << 20;
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private HashContenido() {
+    }
+
+    static long calcular(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            long h = P5 ^ (tamano * P1);
+            for (long pos = 0; pos < tamano; pos += TRAMO) {
+                MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(TRAMO, tamano - pos));
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                while (buffer.remaining() >= Long.BYTES) {
+                    h = mezclar(h, buffer.getLong());
+                }
+                // Últimos bytes del tramo (menos de 8), con su cantidad para que no se confundan con ceros
+                int resto = buffer.remaining();
+                if (resto > 0) {
+                    long ultimo = 0;
+                    for (int k = 0; k < resto; k++) {
+                        ultimo |= (buffer.get() & 0xFFL) << (8 * k);
+                    }
+                    h = mezclar(h, ultimo ^ ((long) resto << 59));
+                }
+            }
+            h = finalizar(h);
+            return h == SIN_CALCULAR ? 1 : h;
+        }
+    }
+
+    private static long mezclar(long h, long valor) {
+        valor *= P2;
+        valor = Long.rotateLeft(valor, 31);
+        valor *= P1;
+        h ^= valor;
+        return Long.rotateLeft(h, 27) * P1 + P4;
+    }
+
+    private static long finalizar(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+}
@@ -0,0 +1,94 @@
+package ar.com.leo.ml;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Hash perceptual (dHash) de una imagen: se reduce a 9x8 en escala de grises y cada bit dice si un píxel es más
+ * claro que el de su derecha. Dos versiones de la misma foto (otro tamaño, otra compresión, como las que guarda
+ * MercadoLibre al publicarla) dan hashes que difieren en pocos bits; fotos distintas, en unos 32.
+ * <p>
+ * La imagen se decodifica submuestreada (solo las filas y columnas necesarias para unos 64 px por lado), así una
+ * foto de varios megapíxeles no se decodifica completa.
+ */
+final class HashPerceptual {
+
+    // Bits distintos hasta los que dos imágenes se consideran la misma
+    static final int DISTANCIA_MAXIMA = 10;
+
+    // 0 queda reservado para "no se pudo calcular" en la caché
+    static final long DESCONOCIDO = 0L;
+
+    // Lado mínimo de la imagen decodificada
+    private static final int LADO_DECODIFICADO = 64;
+
+    private HashPerceptual() {
+    }
+
+    /**
+     * Hash de la imagen, o DESCONOCIDO si el formato no se puede decodificar (ImageIO no lee WebP).
+     */
+    static long calcular(ImageInputStream entrada) throws IOException {
+        Iterator<ImageReader> lectores = ImageIO.getImageReaders(entrada);
+        if (!lectores.hasNext()) {
+            return DESCONOCIDO;
+        }
+        ImageReader lector = lectores.next();
+        try {
+            lector.setInput(entrada, true, true);
+            int paso = Math.max(1, Math.min(lector.getWidth(0), lector.getHeight(0)) / LADO_DECODIFICADO);
+            ImageReadParam parametros = lector.getDefaultReadParam();
+            parametros.setSourceSubsampling(paso, paso, 0, 0);
+            return calcular(lector.read(0, parametros));
+        } finally {
+            lector.dispose();
+        }
+    }
+
+    static long calcular(BufferedImage imagen) {
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        int[] pixeles = imagen.getRGB(0, 0, ancho, alto, null, 0, ancho);
+
+        // Promedio de gris de cada celda de una grilla de 9x8
+        double[] grises = new double[9 * 8];
+        for (int fila = 0; fila < 8; fila++) {
+            int y0 = fila * alto / 8;
+            int y1 = Math.max(y0 + 1, (fila + 1) * alto / 8);
+            for (int columna = 0; columna < 9; columna++) {
+                int x0 = columna * ancho / 9;
+                int x1 = Math.max(x0 + 1, (columna + 1) * ancho / 9);
+                long suma = 0;
+                for (int y = y0; y < y1 && y < alto; y++) {
+                    for (int x = x0; x < x1 && x < ancho; x++) {
+                        int rgb = pixeles[y * ancho + x];
+                        suma += (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+                    }
+                }
+                grises[fila * 9 + columna] = (double) suma / ((y1 - y0) * (x1 - x0));
+            }
+        }
+
+        long hash = 0;
+        for (int fila = 0; fila < 8; fila++) {
+            for (int columna = 0; columna < 8; columna++) {
+                hash <<= 1;
+                if (grises[fila * 9 + columna] > grises[fila * 9 + columna + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        // Una imagen lisa da 0: se distingue de DESCONOCIDO
+        return hash == DESCONOCIDO ? 1 : hash;
+    }
+
+    static boolean parecidas(long a, long b) {
+        return Long.bitCount(a ^ b) <= DISTANCIA_MAXIMA;
+    }
+
+}
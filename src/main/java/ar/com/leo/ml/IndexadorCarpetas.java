@@ -0,0 +1,1155 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.Util;
+import ar.com.leo.ml.model.IndiceCarpetas;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static ar.com.leo.HttpRetryHandler.BASE_SECRET_DIR;
+
+/**
+ * Indexa las carpetas de imágenes y videos por SKU listando varios directorios a la vez.
+ * En unidades de red (NAS, Google Drive) cada listado tarda decenas de milisegundos, así que recorrer
+ * las subcarpetas en paralelo reduce el tiempo casi en proporción a la cantidad de listados simultáneos.
+ * Los conteos son los mismos que con el recorrido secuencial (Files.walk / Files.list).
+ * <p>
+ * El tipo de cada entrada (archivo, directorio, enlace) sale de los atributos que entrega el propio listado
+ * (walkFileTree), sin una consulta de metadatos extra por archivo; solo los enlaces simbólicos se consultan
+ * aparte para saber a qué apuntan.
+ * <p>
+ * El resultado de cada listado se guarda en disco junto con la fecha de modificación del directorio. En la
+ * siguiente ejecución un directorio cuya fecha no cambió no se vuelve a listar (alta, baja o renombrado de
+ * un archivo cambia la fecha de su directorio), así que el costo pasa a ser una consulta por directorio.
+ * <p>
+ * Cada directorio tiene un plazo para responder. Si un recurso de red se cuelga, ese directorio se reintenta al
+ * final y, si sigue sin responder, se usan los conteos de la ejecución anterior y el resultado queda marcado
+ * como incompleto, en lugar de bloquear toda la ejecución.
+ * <p>
+ * Con la verificación de resolución o de formato de clips, además se leen las cabeceras de cada imagen
+ * (DimensionesImagen) o video (MetadatosVideo) y se cuentan aparte los que cumplen los requisitos de MercadoLibre.
+ * Lo leído se guarda en el índice con la fecha de cada archivo, así solo se leen los archivos nuevos o modificados.
+ * <p>
+ * Al descartar imágenes duplicadas, cada SKU cuenta contenidos distintos en lugar de archivos (la misma imagen
+ * guardada con otro nombre o copiada en otra subcarpeta cuenta una vez). Primero se agrupan los archivos del SKU
+ * por tamaño: uno con un tamaño que ningún otro tiene no puede ser copia y no se lee; solo se calcula el hash
+ * (HashContenido) de los que comparten tamaño, y se guarda en el índice junto con el tamaño y la fecha.
+ */
+final class IndexadorCarpetas {
+
+    // Listados de directorio simultáneos (acotado para no saturar el servidor de archivos)
+    static final int LISTADOS_SIMULTANEOS = 16;
+
+    // Plazo para leer un directorio (fecha + listado), contando la espera de un lugar libre
+    static final long PLAZO_LISTADO_SEGUNDOS = 30;
+
+    private static final int MAX_CARPETAS_EN_LOG = 20;
+
+    private static final Path CACHE_DIR = BASE_SECRET_DIR.resolveSibling("cache");
+
+    // Un directorio modificado hace menos que esto puede cambiar sin que cambie su fecha (resolución de la
+    // fecha en FAT/SMB): se lista igual pero no se reutiliza en la próxima ejecución
+    private static final long MARGEN_MTIME_MS = 2000;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(LISTADOS_SIMULTANEOS);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Las lecturas de disco corren en hilos aparte para poder abandonarlas al vencer el plazo (una lectura
+    // colgada en un recurso de red no se puede interrumpir). El semáforo limita las lecturas en curso,
+    // incluidas las abandonadas que siguen colgadas.
+    private static final ExecutorService lectores = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "listado-carpetas");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Semaphore lecturasEnCurso = new Semaphore(LISTADOS_SIMULTANEOS);
+
+    // Último índice de cada carpeta (por firma), para no releer el archivo si la app sigue abierta
+    private static final Map<String, IndiceCarpetas> enMemoria = new ConcurrentHashMap<>();
+
+    // Contadores de la última indexación (se informan en el log)
+    private static final AtomicLong listados = new AtomicLong();
+    private static final AtomicLong reutilizados = new AtomicLong();
+    private static final AtomicLong consultasMetadatos = new AtomicLong();
+    private static final AtomicLong archivosLeidos = new AtomicLong();
+    private static final AtomicLong archivosHasheados = new AtomicLong();
+
+    /**
+     * Qué se lee de cada archivo y cuándo cumple los requisitos. El valor leído es un long (-1 si no se pudo
+     * leer) y se guarda en el índice.
+     */
+    private enum Verificacion {
+        RESOLUCION_IMAGEN("imágenes", "por debajo de " + DimensionesImagen.MINIMO_PX + "x"
+                + DimensionesImagen.MINIMO_PX + " px") {
+            @Override
+            long leer(Path archivo) throws IOException {
+                return DimensionesImagen.leer(archivo);
+            }
+
+            @Override
+            boolean apto(long metadatos) {
+                return DimensionesImagen.apta(metadatos);
+            }
+        },
+        FORMATO_CLIP("videos", "fuera del formato de clip, vertical de " + MetadatosVideo.DURACION_MINIMA_S
+                + " a " + MetadatosVideo.DURACION_MAXIMA_S + " s") {
+            @Override
+            long leer(Path archivo) throws IOException {
+                return MetadatosVideo.leer(archivo);
+            }
+
+            @Override
+            boolean apto(long metadatos) {
+                return MetadatosVideo.apto(metadatos);
+            }
+        };
+
+        static final long DESCONOCIDO = -1L;
+
+        private final String archivos;
+        private final String descarte;
+
+        Verificacion(String archivos, String descarte) {
+            this.archivos = archivos;
+            this.descarte = descarte;
+        }
+
+        abstract long leer(Path archivo) throws IOException;
+
+        abstract boolean apto(long metadatos);
+    }
+
+    /**
+     * Conteos por SKU de una carpeta (aptas: los que cumplen la resolución mínima, null si no se verificó).
+     * Si hubo directorios que no respondieron a tiempo (sinListar), sus conteos son los de la ejecución anterior
+     * o faltan; afecta() dice a qué SKUs alcanza.
+     * archivos: los archivos contados de cada SKU, solo si se pidieron (null si no).
+     */
+    record Resultado(MapaSkuConteo conteos, MapaSkuConteo aptas, List<Path> sinListar, boolean todoIncompleto,
+            MapaSkuConteo skusIncompletos, Map<Long, List<ArchivoLocal>> archivos) {
+
+        static Resultado vacio() {
+            return new Resultado(new MapaSkuConteo(), null, List.of(), false, new MapaSkuConteo(), null);
+        }
+
+        /**
+         * Archivos contados del SKU (sin los descartados por resolución ni las copias), o vacío.
+         */
+        List<ArchivoLocal> archivosDe(long sku) {
+            return archivos != null ? archivos.getOrDefault(sku, List.of()) : List.of();
+        }
+
+        /**
+         * Cantidad de archivos del SKU; con la verificación de resolución, solo los que la cumplen.
+         */
+        int cantidad(long sku) {
+            return (aptas != null ? aptas : conteos).get(sku);
+        }
+
+        boolean incompleto() {
+            return !sinListar.isEmpty();
+        }
+
+        /**
+         * true si el conteo del SKU puede estar incompleto.
+         */
+        boolean afecta(long sku) {
+            return todoIncompleto || skusIncompletos.contiene(sku);
+        }
+    }
+
+    /**
+     * Un archivo contado, con el tamaño y la fecha que tenía al listarlo.
+     */
+    record ArchivoLocal(Path ruta, long tamano, long fecha) {
+    }
+
+    private IndexadorCarpetas() {
+    }
+
+    /**
+     * Cuenta los archivos con alguna de las extensiones cuyo nombre empieza con un SKU (primeros 7 caracteres),
+     * recorriendo toda la carpeta y sus subcarpetas.
+     * Si skusObjetivo no es null, solo se cuentan esos SKUs. Con verificarResolucion también se cuentan aparte
+     * las imágenes que cumplen la resolución mínima; con deduplicar, las copias de una misma imagen cuentan una vez.
+     * Con conArchivos el resultado incluye los archivos contados de cada SKU.
+     */
+    static synchronized Resultado indexarArchivos(Path carpeta, Set<String> extensionesSet,
+            MapaSkuConteo skusObjetivo, boolean verificarResolucion, boolean deduplicar, boolean conArchivos) {
+        reiniciarContadores();
+
+        String firma = firma("IMAGENES", carpeta, extensionesSet);
+        IndiceCarpetas anterior = cargarIndice(firma);
+        Pasada pasada = new Pasada(extensionesSet, skusObjetivo, anterior.directorios,
+                verificarResolucion ? Verificacion.RESOLUCION_IMAGEN : null, deduplicar, conArchivos);
+
+        pool.invoke(new ListarArchivos(pasada, carpeta, ""));
+        List<String> sinListar = reintentarVencidos(pasada,
+                relativa -> new ListarArchivos(pasada, resolver(carpeta, relativa), relativa));
+
+        // Lo que siguió sin responder: conteos e índice de la ejecución anterior para todo ese subárbol.
+        // Cualquier SKU puede tener imágenes ahí, así que el resultado entero queda incompleto.
+        for (String relativa : sinListar) {
+            pasada.conservarAnterior(relativa, true);
+        }
+        Map<Long, List<ArchivoLocal>> archivos = conArchivos ? new HashMap<>() : null;
+        if (deduplicar) {
+            descartarDuplicados(pasada, carpeta, archivos);
+        } else if (conArchivos) {
+            agruparArchivos(pasada, carpeta, archivos);
+        }
+
+        // Se recorren todos los directorios (el filtro de SKUs es solo al sumar), así que el índice queda completo
+        guardarIndice(firma, anterior, pasada.nuevos);
+        informarContadores(carpeta, sinListar);
+        informarVerificacion(pasada);
+        return new Resultado(pasada.index, pasada.aptas, resolverTodos(carpeta, sinListar), !sinListar.isEmpty(),
+                new MapaSkuConteo(), archivos);
+    }
+
+    /**
+     * Cuenta los videos de cada carpeta de SKU (primer nivel, nombre de la carpeta = SKU).
+     * Si skusObjetivo no es null, solo se listan las carpetas de esos SKUs. Con verificarClips también se
+     * cuentan aparte los videos con el formato de un clip.
+     */
+    static synchronized Resultado indexarVideos(Path carpeta, Set<String> extensionesSet,
+            MapaSkuConteo skusObjetivo, boolean verificarClips) throws IOException {
+        reiniciarContadores();
+
+        String firma = firma("VIDEOS", carpeta, extensionesSet);
+        IndiceCarpetas anterior = cargarIndice(firma);
+        Pasada pasada = new Pasada(extensionesSet, skusObjetivo, anterior.directorios,
+                verificarClips ? Verificacion.FORMATO_CLIP : null, false, false);
+
+        // Raíz: nombres de las carpetas de SKU (siguiendo enlaces, como Files.isDirectory)
+        IndiceCarpetas.Directorio raiz;
+        boolean raizVencida = false;
+        try {
+            raiz = conPlazo(() -> obtenerDirectorio(carpeta, true, anterior.directorios.get(""), false,
+                    (entrada, attrs, dir, conteos) -> {
+                        if (attrs.isDirectory()) {
+                            dir.subdirectorios.add(entrada.getFileName().toString());
+                        }
+                    }));
+        } catch (TimeoutException e) {
+            // Sin la lista de carpetas de SKU se usa la de la ejecución anterior
+            AppLogger.warn("La carpeta de videos " + carpeta + " no respondió en " + PLAZO_LISTADO_SEGUNDOS
+                    + " s.");
+            raizVencida = true;
+            raiz = anterior.directorios.get("");
+            if (raiz == null) {
+                return new Resultado(new MapaSkuConteo(), pasada.aptas, List.of(carpeta), true,
+                        new MapaSkuConteo(), null);
+            }
+        }
+        pasada.nuevos.put("", raiz);
+
+        List<ContarVideos> tareas = new ArrayList<>();
+        for (String nombre : raiz.subdirectorios) {
+            long skuKey = SkuCodec.codificar(nombre);
+            if (skuKey == SkuCodec.INVALIDO) {
+                continue;
+            }
+            if (skusObjetivo != null && !skusObjetivo.contiene(skuKey)) {
+                // No se visita: se conserva lo que había (la carpeta sigue existiendo)
+                IndiceCarpetas.Directorio previo = anterior.directorios.get(nombre);
+                if (previo != null) {
+                    pasada.nuevos.put(nombre, previo);
+                }
+                continue;
+            }
+            tareas.add(new ContarVideos(pasada, carpeta.resolve(nombre), nombre, skuKey));
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tareas);
+            }
+        });
+        List<String> sinListar = reintentarVencidos(pasada,
+                nombre -> new ContarVideos(pasada, carpeta.resolve(nombre), nombre, SkuCodec.codificar(nombre)));
+
+        // Cada carpeta de SKU es de un solo SKU: solo esos quedan incompletos
+        MapaSkuConteo skusIncompletos = new MapaSkuConteo();
+        for (String nombre : sinListar) {
+            pasada.conservarAnterior(nombre, false);
+            skusIncompletos.agregar(SkuCodec.codificar(nombre));
+        }
+        if (raizVencida) {
+            sinListar.add(0, "");
+        }
+
+        guardarIndice(firma, anterior, pasada.nuevos);
+        informarContadores(carpeta, sinListar);
+        informarVerificacion(pasada);
+        return new Resultado(pasada.index, pasada.aptas, resolverTodos(carpeta, sinListar), raizVencida,
+                skusIncompletos, null);
+    }
+
+    /**
+     * Directorios de la última indexación de la carpeta (la raíz incluida), o vacío si todavía no se indexó.
+     */
+    static List<Path> directoriosIndexados(Path carpeta, Set<String> extensionesSet, boolean videos) {
+        IndiceCarpetas indice = enMemoria.get(firma(videos ? "VIDEOS" : "IMAGENES", carpeta, extensionesSet));
+        List<Path> directorios = new ArrayList<>();
+        if (indice != null) {
+            for (String relativa : indice.directorios.keySet()) {
+                directorios.add(resolver(carpeta, relativa));
+            }
+        }
+        return directorios;
+    }
+
+    /**
+     * Vuelve a intentar, una vez y al final, los directorios que no respondieron a tiempo.
+     * Devuelve los que siguen sin responder.
+     */
+    private static List<String> reintentarVencidos(Pasada pasada, Function<String, RecursiveAction> tarea) {
+        List<String> vencidos = pasada.tomarVencidos();
+        if (vencidos.isEmpty()) {
+            return vencidos;
+        }
+        AppLogger.warn(vencidos.size() + " carpetas no respondieron en " + PLAZO_LISTADO_SEGUNDOS
+                + " s. Reintentando...");
+        List<RecursiveAction> tareas = new ArrayList<>(vencidos.size());
+        for (String relativa : vencidos) {
+            tareas.add(tarea.apply(relativa));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tareas);
+            }
+        });
+        return pasada.tomarVencidos();
+    }
+
+    /**
+     * Ejecuta una lectura de disco con el plazo PLAZO_LISTADO_SEGUNDOS. Si vence, la lectura se abandona
+     * (sigue ocupando su lugar en el semáforo hasta que el sistema operativo la devuelva).
+     */
+    private static <T> T conPlazo(Callable<T> lectura) throws IOException, TimeoutException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(PLAZO_LISTADO_SEGUNDOS);
+        try {
+            if (!lecturasEnCurso.tryAcquire(PLAZO_LISTADO_SEGUNDOS, TimeUnit.SECONDS)) {
+                throw new TimeoutException();
+            }
+            Future<T> futuro;
+            try {
+                futuro = lectores.submit(() -> {
+                    try {
+                        return lectura.call();
+                    } finally {
+                        lecturasEnCurso.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                lecturasEnCurso.release();
+                throw e;
+            }
+            try {
+                return futuro.get(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                futuro.cancel(true);
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Indexación interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    private interface VisitanteEntrada {
+        void visitar(Path entrada, BasicFileAttributes attrs, IndiceCarpetas.Directorio dir, MapaSkuConteo conteos);
+    }
+
+    /**
+     * Devuelve el contenido del directorio: el del índice anterior si su fecha de modificación no cambió, o
+     * uno nuevo listándolo. La fecha se lee antes de listar, así un cambio durante el listado invalida el
+     * resultado en la próxima ejecución. anterior es null si no tiene lo que hace falta en esta pasada.
+     * Con porArchivo (se usa lo leído de cada archivo) además tiene que coincidir la fecha y el tamaño de cada
+     * archivo: sobrescribir uno con el mismo nombre no cambia la fecha del directorio.
+     */
+    private static IndiceCarpetas.Directorio obtenerDirectorio(Path directorio, boolean seguirEnlaces,
+            IndiceCarpetas.Directorio anterior, boolean porArchivo, VisitanteEntrada visitante)
+            throws IOException {
+        consultasMetadatos.incrementAndGet();
+        BasicFileAttributes attrsDirectorio = seguirEnlaces
+                ? Files.readAttributes(directorio, BasicFileAttributes.class)
+                : Files.readAttributes(directorio, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        long mtime = attrsDirectorio.lastModifiedTime().toMillis();
+
+        if (anterior != null && anterior.mtime != -1 && anterior.mtime == mtime
+                && (!porArchivo || archivosSinCambios(directorio, seguirEnlaces, anterior))) {
+            reutilizados.incrementAndGet();
+            return anterior;
+        }
+
+        IndiceCarpetas.Directorio dir = new IndiceCarpetas.Directorio();
+        dir.mtime = System.currentTimeMillis() - mtime < MARGEN_MTIME_MS ? -1 : mtime;
+        dir.subdirectorios = new ArrayList<>();
+        MapaSkuConteo conteos = new MapaSkuConteo();
+        listar(directorio, seguirEnlaces, (entrada, attrs) -> visitante.visitar(entrada, attrs, dir, conteos));
+
+        dir.skus = conteos.claves();
+        dir.cantidades = new int[dir.skus.length];
+        for (int i = 0; i < dir.skus.length; i++) {
+            dir.cantidades[i] = conteos.get(dir.skus[i]);
+        }
+        return dir;
+    }
+
+    /**
+     * true si cada archivo guardado en anterior sigue con la misma fecha y tamaño (si se guardó el tamaño).
+     * Ante el primero distinto o que no se pueda leer se corta: el directorio se lista de nuevo y
+     * completarArchivos vuelve a leer solo los que cambiaron.
+     */
+    private static boolean archivosSinCambios(Path directorio, boolean seguirEnlaces,
+            IndiceCarpetas.Directorio anterior) {
+        if (anterior.archivos == null) {
+            return true;
+        }
+        LinkOption[] opciones = seguirEnlaces ? new LinkOption[0] : new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+        for (int i = 0; i < anterior.archivos.length; i++) {
+            consultasMetadatos.incrementAndGet();
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(directorio.resolve(anterior.archivos[i]),
+                        BasicFileAttributes.class, opciones);
+                if (attrs.lastModifiedTime().toMillis() != anterior.fechasArchivos[i]) {
+                    return false;
+                }
+                // Igual que al listar: el tamaño de un enlace no se guarda (-1)
+                if (anterior.tamanos != null && anterior.tamanos[i] != -1 && attrs.size() != anterior.tamanos[i]) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lista las entradas de un directorio (sin recursión) con los atributos que trae el listado.
+     * Con seguirEnlaces los atributos de un enlace simbólico son los de su destino (como Files.isDirectory);
+     * sin él, el enlace llega como enlace.
+     */
+    private static void listar(Path directorio, boolean seguirEnlaces,
+            BiConsumer<Path, BasicFileAttributes> porEntrada) throws IOException {
+        listados.incrementAndGet();
+        Set<FileVisitOption> opciones = seguirEnlaces ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+                : EnumSet.noneOf(FileVisitOption.class);
+        Files.walkFileTree(directorio, opciones, 1, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path entrada, BasicFileAttributes attrs) {
+                // Con profundidad 1 los subdirectorios también llegan acá (no se entra en ellos)
+                porEntrada.accept(entrada, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path entrada, IOException e) throws IOException {
+                if (entrada.equals(directorio)) {
+                    throw e;
+                }
+                // Entrada que no se pudo leer (borrada durante el listado, sin permisos): se ignora
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Igual que Files.isRegularFile(path): los enlaces simbólicos se resuelven con una consulta extra.
+     */
+    private static boolean esArchivo(Path entrada, BasicFileAttributes attrs) {
+        if (!attrs.isSymbolicLink()) {
+            return attrs.isRegularFile();
+        }
+        consultasMetadatos.incrementAndGet();
+        return Files.isRegularFile(entrada);
+    }
+
+    private static void reiniciarContadores() {
+        listados.set(0);
+        reutilizados.set(0);
+        consultasMetadatos.set(0);
+        archivosLeidos.set(0);
+        archivosHasheados.set(0);
+    }
+
+    private static void informarContadores(Path carpeta, List<String> sinListar) {
+        AppLogger.info("Indexado " + carpeta + ": " + listados.get() + " carpetas listadas, " + reutilizados.get()
+                + " sin cambios, " + consultasMetadatos.get() + " consultas de metadatos.");
+        if (!sinListar.isEmpty()) {
+            List<Path> muestra = resolverTodos(carpeta,
+                    sinListar.subList(0, Math.min(sinListar.size(), MAX_CARPETAS_EN_LOG)));
+            AppLogger.warn("Índice incompleto: " + sinListar.size() + " carpetas no respondieron (se usan los "
+                    + "conteos de la ejecución anterior): " + muestra
+                    + (sinListar.size() > MAX_CARPETAS_EN_LOG ? " ..." : ""));
+        }
+    }
+
+    private static void informarVerificacion(Pasada pasada) {
+        if (pasada.verificacion == null) {
+            return;
+        }
+        long[] descartados = { 0 };
+        pasada.index.forEach((sku, cantidad) -> descartados[0] += cantidad - pasada.aptas.get(sku));
+        AppLogger.info("Verificación de " + pasada.verificacion.archivos + ": " + archivosLeidos.get()
+                + " archivos leídos, " + descartados[0] + " " + pasada.verificacion.descarte + " (no se cuentan).");
+    }
+
+    private static Path resolver(Path carpeta, String relativa) {
+        return relativa.isEmpty() ? carpeta : carpeta.resolve(relativa);
+    }
+
+    private static List<Path> resolverTodos(Path carpeta, List<String> relativas) {
+        List<Path> rutas = new ArrayList<>(relativas.size());
+        for (String relativa : relativas) {
+            rutas.add(resolver(carpeta, relativa));
+        }
+        return rutas;
+    }
+
+    /**
+     * Posición del punto de la extensión si es una de las buscadas (sin distinguir mayúsculas), o -1.
+     * Compara sobre el nombre original, sin crear Strings en mayúsculas/minúsculas.
+     */
+    private static int puntoExtension(String nombreArchivo, String[] extensiones) {
+        int lastDot = nombreArchivo.lastIndexOf('.');
+        if (lastDot == -1 || lastDot == nombreArchivo.length() - 1) {
+            return -1;
+        }
+        int largo = nombreArchivo.length() - lastDot;
+        for (String extension : extensiones) {
+            if (extension.length() == largo && nombreArchivo.regionMatches(true, lastDot, extension, 0, largo)) {
+                return lastDot;
+            }
+        }
+        return -1;
+    }
+
+    // --- ÍNDICE EN DISCO ---
+
+    private static String firma(String tipo, Path carpeta, Set<String> extensionesSet) {
+        return tipo + "|" + carpeta.toAbsolutePath().normalize() + "|" + new TreeSet<>(extensionesSet);
+    }
+
+    private static Path archivoIndice(String firma) {
+        return CACHE_DIR.resolve("indice_" + Integer.toHexString(firma.hashCode()) + ".json");
+    }
+
+    private static IndiceCarpetas cargarIndice(String firma) {
+        IndiceCarpetas guardado = enMemoria.get(firma);
+        if (guardado != null) {
+            return guardado;
+        }
+        Path archivo = archivoIndice(firma);
+        if (!Files.exists(archivo)) {
+            return new IndiceCarpetas();
+        }
+        try {
+            IndiceCarpetas indice = mapper.readValue(archivo.toFile(), IndiceCarpetas.class);
+            if (indice.version == IndiceCarpetas.VERSION && firma.equals(indice.firma)
+                    && indice.directorios != null) {
+                return indice;
+            }
+            AppLogger.info("Índice de carpetas desactualizado, se indexa todo de nuevo.");
+        } catch (Exception e) {
+            AppLogger.warn("No se pudo leer el índice de carpetas " + archivo + ": " + e.getMessage());
+        }
+        return new IndiceCarpetas();
+    }
+
+    private static void guardarIndice(String firma, IndiceCarpetas anterior,
+            Map<String, IndiceCarpetas.Directorio> directorios) {
+        IndiceCarpetas indice = new IndiceCarpetas();
+        indice.firma = firma;
+        indice.directorios = directorios;
+        enMemoria.put(firma, indice);
+
+        // Sin directorios listados, agregados ni borrados (ni hashes nuevos) el archivo ya está al día
+        if (listados.get() == 0 && archivosHasheados.get() == 0
+                && directorios.keySet().equals(anterior.directorios.keySet())) {
+            return;
+        }
+        Path archivo = archivoIndice(firma);
+        try {
+            Files.createDirectories(CACHE_DIR);
+            // Se escribe aparte y se reemplaza de una vez: un corte a mitad de escritura no deja un índice roto
+            Path temporal = Files.createTempFile(CACHE_DIR, "indice-", ".tmp");
+            try {
+                mapper.writeValue(temporal.toFile(), indice);
+                Util.reemplazarArchivo(temporal, archivo);
+            } finally {
+                Files.deleteIfExists(temporal);
+            }
+        } catch (Exception e) {
+            AppLogger.warn("No se pudo guardar el índice de carpetas " + archivo + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Guarda en el directorio recién listado sus archivos con lo leído de cada uno y, con verificación, cuenta
+     * los aptos por SKU. Los que no cambiaron desde la ejecución anterior (mismo nombre, fecha y tamaño) no se
+     * vuelven a leer y conservan su hash. Se llama desde una tarea del pool (las lecturas se reparten en subtareas).
+     */
+    private static void completarArchivos(Pasada pasada, Path directorio, IndiceCarpetas.Directorio dir,
+            IndiceCarpetas.Directorio anterior, ArchivosListados listados) {
+        Verificacion verificacion = pasada.verificacion;
+        int n = listados.cantidad;
+        String[] nombres = listados.nombres.toArray(new String[0]);
+        long[] fechas = Arrays.copyOf(listados.fechas, n);
+        long[] metadatos = verificacion != null ? new long[n] : null;
+        long[] tamanos = pasada.deduplicar ? Arrays.copyOf(listados.tamanos, n) : null;
+        long[] hashes = pasada.deduplicar ? new long[n] : null;
+
+        Map<String, Integer> previas = new HashMap<>();
+        if (anterior != null && anterior.archivos != null) {
+            for (int j = 0; j < anterior.archivos.length; j++) {
+                previas.put(anterior.archivos[j], j);
+            }
+        }
+        int[] pendientes = new int[n];
+        int cantidadPendientes = 0;
+        for (int i = 0; i < n; i++) {
+            Integer j = previas.get(nombres[i]);
+            boolean igual = j != null && anterior.fechasArchivos[j] == fechas[i]
+                    && (anterior.tamanos == null || anterior.tamanos[j] == listados.tamanos[i]);
+            if (metadatos != null) {
+                if (igual && anterior.metadatos != null && anterior.metadatos[j] != Verificacion.DESCONOCIDO) {
+                    metadatos[i] = anterior.metadatos[j];
+                } else {
+                    pendientes[cantidadPendientes++] = i;
+                }
+            }
+            if (hashes != null && igual && anterior.hashes != null) {
+                hashes[i] = anterior.hashes[j];
+            }
+        }
+        if (cantidadPendientes > 0) {
+            new LeerMetadatos(verificacion, directorio, nombres, metadatos, pendientes, 0, cantidadPendientes)
+                    .invoke();
+        }
+
+        dir.archivos = nombres;
+        dir.fechasArchivos = fechas;
+        dir.metadatos = metadatos;
+        dir.tamanos = tamanos;
+        dir.hashes = hashes;
+        if (verificacion == null) {
+            return;
+        }
+        MapaSkuConteo aptas = new MapaSkuConteo();
+        for (int i = 0; i < n; i++) {
+            if (verificacion.apto(metadatos[i])) {
+                aptas.sumar(listados.skus[i], 1);
+            }
+        }
+        dir.aptas = new int[dir.skus.length];
+        for (int k = 0; k < dir.skus.length; k++) {
+            dir.aptas[k] = aptas.get(dir.skus[k]);
+        }
+    }
+
+    /**
+     * Reemplaza los conteos de la pasada por los de contenidos distintos por SKU. Los archivos del SKU se agrupan
+     * por tamaño y solo se calcula el hash de los grupos con más de uno (los que faltan, en paralelo); un archivo
+     * cuyo hash no se pudo calcular se cuenta igual (no se descarta sin estar seguro).
+     * Los directorios sin datos por archivo (los de la ejecución anterior que no respondieron) cuentan todo.
+     * Si archivos no es null, se agregan los archivos contados (una copia de cada imagen).
+     */
+    private static void descartarDuplicados(Pasada pasada, Path carpeta, Map<Long, List<ArchivoLocal>> archivos) {
+        MapaSkuConteo unicos = new MapaSkuConteo();
+        MapaSkuConteo unicosAptos = pasada.aptas != null ? new MapaSkuConteo() : null;
+        Map<ArchivoPorTamano, List<ArchivoIndexado>> grupos = new HashMap<>();
+        for (Map.Entry<String, IndiceCarpetas.Directorio> entrada : pasada.nuevos.entrySet()) {
+            IndiceCarpetas.Directorio dir = entrada.getValue();
+            if (dir.archivos == null || dir.hashes == null) {
+                for (int i = 0; i < dir.skus.length; i++) {
+                    if (pasada.cuenta(dir.skus[i])) {
+                        unicos.sumar(dir.skus[i], dir.cantidades[i]);
+                        if (unicosAptos != null) {
+                            unicosAptos.sumar(dir.skus[i], dir.aptas != null ? dir.aptas[i] : dir.cantidades[i]);
+                        }
+                    }
+                }
+                continue;
+            }
+            for (int i = 0; i < dir.archivos.length; i++) {
+                long sku = SkuCodec.codificar(dir.archivos[i]);
+                if (pasada.cuenta(sku)) {
+                    grupos.computeIfAbsent(new ArchivoPorTamano(sku, dir.tamanos[i]), k -> new ArrayList<>(1))
+                            .add(new ArchivoIndexado(entrada.getKey(), dir, i));
+                }
+            }
+        }
+
+        List<ArchivoIndexado> pendientes = new ArrayList<>();
+        for (Map.Entry<ArchivoPorTamano, List<ArchivoIndexado>> grupo : grupos.entrySet()) {
+            // Tamaño desconocido: no se puede agrupar, cada archivo se cuenta solo
+            if (grupo.getValue().size() > 1 && grupo.getKey().tamano() >= 0) {
+                for (ArchivoIndexado archivo : grupo.getValue()) {
+                    if (archivo.hash() == HashContenido.SIN_CALCULAR) {
+                        pendientes.add(archivo);
+                    }
+                }
+            }
+        }
+        if (!pendientes.isEmpty()) {
+            pool.invoke(new HashearArchivos(carpeta, pendientes, 0, pendientes.size()));
+        }
+
+        long duplicados = 0;
+        Set<Long> vistos = new HashSet<>();
+        for (Map.Entry<ArchivoPorTamano, List<ArchivoIndexado>> grupo : grupos.entrySet()) {
+            long sku = grupo.getKey().sku();
+            boolean agrupable = grupo.getValue().size() > 1 && grupo.getKey().tamano() >= 0;
+            vistos.clear();
+            for (ArchivoIndexado archivo : grupo.getValue()) {
+                long hash = archivo.hash();
+                if (agrupable && hash != HashContenido.SIN_CALCULAR && !vistos.add(hash)) {
+                    duplicados++;
+                    continue;
+                }
+                unicos.sumar(sku, 1);
+                boolean apto = archivo.apto(pasada.verificacion);
+                if (unicosAptos != null && apto) {
+                    unicosAptos.sumar(sku, 1);
+                }
+                if (archivos != null && apto) {
+                    archivos.computeIfAbsent(sku, k -> new ArrayList<>()).add(archivo.local(carpeta));
+                }
+            }
+        }
+        pasada.index = unicos;
+        pasada.aptas = unicosAptos;
+        AppLogger.info("Imágenes duplicadas (copias de otra imagen del mismo SKU, no se cuentan): " + duplicados
+                + "; archivos leídos para compararlos: " + archivosHasheados.get() + ".");
+    }
+
+    /**
+     * Agrupa por SKU los archivos contados (sin los descartados por resolución). Los directorios sin datos por
+     * archivo (los de la ejecución anterior que no respondieron) no aportan archivos.
+     */
+    private static void agruparArchivos(Pasada pasada, Path carpeta, Map<Long, List<ArchivoLocal>> archivos) {
+        for (Map.Entry<String, IndiceCarpetas.Directorio> entrada : pasada.nuevos.entrySet()) {
+            IndiceCarpetas.Directorio dir = entrada.getValue();
+            if (dir.archivos == null) {
+                continue;
+            }
+            for (int i = 0; i < dir.archivos.length; i++) {
+                ArchivoIndexado archivo = new ArchivoIndexado(entrada.getKey(), dir, i);
+                long sku = SkuCodec.codificar(dir.archivos[i]);
+                if (pasada.cuenta(sku) && archivo.apto(pasada.verificacion)) {
+                    archivos.computeIfAbsent(sku, k -> new ArrayList<>()).add(archivo.local(carpeta));
+                }
+            }
+        }
+    }
+
+    /**
+     * Estado de una indexación: conteos acumulados, índice anterior y nuevo, y directorios que no respondieron.
+     */
+    private static final class Pasada {
+        final String[] extensiones;
+        final MapaSkuConteo skusObjetivo;
+        final Verificacion verificacion; // null: sin verificación
+        final boolean deduplicar;
+        final boolean conArchivos;
+        // Al descartar duplicados se reemplazan al final por los conteos de contenidos distintos
+        MapaSkuConteo index = new MapaSkuConteo();
+        MapaSkuConteo aptas; // null sin verificación
+        final Map<String, IndiceCarpetas.Directorio> anteriores;
+        final Map<String, IndiceCarpetas.Directorio> nuevos = new ConcurrentHashMap<>();
+        final Queue<String> vencidos = new ConcurrentLinkedQueue<>();
+
+        Pasada(Set<String> extensionesSet, MapaSkuConteo skusObjetivo,
+                Map<String, IndiceCarpetas.Directorio> anteriores, Verificacion verificacion, boolean deduplicar,
+                boolean conArchivos) {
+            this.extensiones = extensionesSet.toArray(new String[0]);
+            this.skusObjetivo = skusObjetivo;
+            this.anteriores = anteriores;
+            this.verificacion = verificacion;
+            this.deduplicar = deduplicar;
+            this.conArchivos = conArchivos;
+            this.aptas = verificacion != null ? new MapaSkuConteo() : null;
+        }
+
+        /**
+         * true si hay que guardar los archivos de cada directorio (no solo los conteos).
+         */
+        boolean porArchivo() {
+            return verificacion != null || deduplicar || conArchivos;
+        }
+
+        /**
+         * El directorio de la ejecución anterior si tiene lo que hace falta en esta pasada (archivos verificados,
+         * tamaños para comparar, lista de archivos), o null.
+         */
+        IndiceCarpetas.Directorio reutilizable(String relativa) {
+            IndiceCarpetas.Directorio anterior = anteriores.get(relativa);
+            if (anterior == null || (verificacion != null && anterior.aptas == null)
+                    || (deduplicar && anterior.hashes == null) || (conArchivos && anterior.archivos == null)) {
+                return null;
+            }
+            return anterior;
+        }
+
+        boolean cuenta(long sku) {
+            return skusObjetivo == null || skusObjetivo.contiene(sku);
+        }
+
+        /**
+         * Suma los conteos del directorio al índice (un bloqueo por directorio, no uno por archivo).
+         */
+        void sumar(IndiceCarpetas.Directorio dir) {
+            synchronized (index) {
+                for (int i = 0; i < dir.skus.length; i++) {
+                    if (cuenta(dir.skus[i])) {
+                        index.sumar(dir.skus[i], dir.cantidades[i]);
+                        if (aptas != null) {
+                            // Un directorio anterior sin verificar cuenta todos sus archivos
+                            aptas.sumar(dir.skus[i], dir.aptas != null ? dir.aptas[i] : dir.cantidades[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Usa lo obtenido del directorio en la ejecución anterior (y de sus subdirectorios, si recursivo).
+         * Se conserva su fecha, así cuando vuelva a responder se lista solo si cambió.
+         */
+        void conservarAnterior(String relativa, boolean recursivo) {
+            IndiceCarpetas.Directorio previo = anteriores.get(relativa);
+            if (previo == null) {
+                return;
+            }
+            nuevos.put(relativa, previo);
+            sumar(previo);
+            if (recursivo) {
+                for (String nombre : previo.subdirectorios) {
+                    conservarAnterior(relativa.isEmpty() ? nombre : relativa + "/" + nombre, true);
+                }
+            }
+        }
+
+        List<String> tomarVencidos() {
+            List<String> lista = new ArrayList<>();
+            String relativa;
+            while ((relativa = vencidos.poll()) != null) {
+                lista.add(relativa);
+            }
+            return lista;
+        }
+    }
+
+    /**
+     * Suma al índice los archivos del directorio y lanza una subtarea por cada subdirectorio.
+     * Igual que Files.walk no sigue enlaces simbólicos a directorios.
+     */
+    @SuppressWarnings("serial") // Nunca se serializa (ForkJoinTask es Serializable)
+    private static final class ListarArchivos extends RecursiveAction {
+        private final Pasada pasada;
+        private final Path directorio;
+        private final String relativa;
+
+        ListarArchivos(Pasada pasada, Path directorio, String relativa) {
+            this.pasada = pasada;
+            this.directorio = directorio;
+            this.relativa = relativa;
+        }
+
+        @Override
+        protected void compute() {
+            String[] extensiones = pasada.extensiones;
+            IndiceCarpetas.Directorio anterior = pasada.reutilizable(relativa);
+            ArchivosListados imagenes = pasada.porArchivo() ? new ArchivosListados() : null;
+            IndiceCarpetas.Directorio dir;
+            try {
+                dir = conPlazo(() -> obtenerDirectorio(directorio, false, anterior, imagenes != null,
+                        (entrada, attrs, nuevo, conteos) -> {
+                            // Igual que Files.walk, no se entra en enlaces simbólicos a directorios
+                            if (attrs.isDirectory()) {
+                                nuevo.subdirectorios.add(entrada.getFileName().toString());
+                                return;
+                            }
+
+                            String nombreArchivo = entrada.getFileName().toString();
+                            // El nombre sin extensión tiene que tener al menos los 7 caracteres del SKU
+                            if (puntoExtension(nombreArchivo, extensiones) < SkuCodec.LARGO) {
+                                return;
+                            }
+
+                            // Se cuentan todos los SKUs (el índice en disco sirve para cualquier filtro)
+                            if (esArchivo(entrada, attrs)) {
+                                long sku = SkuCodec.codificar(nombreArchivo);
+                                conteos.sumar(sku, 1);
+                                if (imagenes != null && sku != SkuCodec.INVALIDO) {
+                                    // El tamaño de un enlace es el del enlace, no el de la imagen
+                                    imagenes.agregar(nombreArchivo, attrs.lastModifiedTime().toMillis(),
+                                            attrs.isSymbolicLink() ? -1 : attrs.size(), sku);
+                                }
+                            }
+                        }));
+            } catch (TimeoutException e) {
+                pasada.vencidos.add(relativa);
+                return;
+            } catch (NoSuchFileException e) {
+                // Se borró desde la ejecución anterior
+                return;
+            } catch (IOException e) {
+                AppLogger.warn("No se pudo listar la carpeta " + directorio + ": " + e.getMessage());
+                return;
+            }
+            if (imagenes != null && dir != anterior) {
+                completarArchivos(pasada, directorio, dir, pasada.anteriores.get(relativa), imagenes);
+            }
+            pasada.nuevos.put(relativa, dir);
+            pasada.sumar(dir);
+
+            List<ListarArchivos> subdirectorios = new ArrayList<>(dir.subdirectorios.size());
+            for (String nombre : dir.subdirectorios) {
+                String relativaSub = relativa.isEmpty() ? nombre : relativa + "/" + nombre;
+                subdirectorios.add(new ListarArchivos(pasada, directorio.resolve(nombre), relativaSub));
+            }
+            invokeAll(subdirectorios);
+        }
+    }
+
+    /**
+     * Archivos encontrados al listar un directorio (nombre, fecha, tamaño y SKU), para verificarlos o compararlos.
+     */
+    private static final class ArchivosListados {
+        final List<String> nombres = new ArrayList<>();
+        long[] fechas = new long[16];
+        long[] tamanos = new long[16];
+        long[] skus = new long[16];
+        int cantidad;
+
+        void agregar(String nombre, long fecha, long tamano, long sku) {
+            if (cantidad == fechas.length) {
+                fechas = Arrays.copyOf(fechas, cantidad * 2);
+                tamanos = Arrays.copyOf(tamanos, cantidad * 2);
+                skus = Arrays.copyOf(skus, cantidad * 2);
+            }
+            nombres.add(nombre);
+            fechas[cantidad] = fecha;
+            tamanos[cantidad] = tamano;
+            skus[cantidad] = sku;
+            cantidad++;
+        }
+    }
+
+    /**
+     * Lee los datos de los archivos pendientes, repartidos en subtareas para leer varios a la vez.
+     * Un archivo que no responde a tiempo o no se puede leer queda como DESCONOCIDO (se cuenta igual).
+     */
+    @SuppressWarnings("serial") // Nunca se serializa (ForkJoinTask es Serializable)
+    private static final class LeerMetadatos extends RecursiveAction {
+        private static final int POR_TAREA = 16;
+
+        private final Verificacion verificacion;
+        private final Path directorio;
+        private final String[] nombres;
+        private final long[] metadatos;
+        private final int[] pendientes;
+        private final int desde;
+        private final int hasta;
+
+        LeerMetadatos(Verificacion verificacion, Path directorio, String[] nombres, long[] metadatos,
+                int[] pendientes, int desde, int hasta) {
+            this.verificacion = verificacion;
+            this.directorio = directorio;
+            this.nombres = nombres;
+            this.metadatos = metadatos;
+            this.pendientes = pendientes;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde > POR_TAREA) {
+                int medio = (desde + hasta) >>> 1;
+                invokeAll(new LeerMetadatos(verificacion, directorio, nombres, metadatos, pendientes, desde, medio),
+                        new LeerMetadatos(verificacion, directorio, nombres, metadatos, pendientes, medio, hasta));
+                return;
+            }
+            for (int k = desde; k < hasta; k++) {
+                int i = pendientes[k];
+                Path archivo = directorio.resolve(nombres[i]);
+                try {
+                    metadatos[i] = conPlazo(() -> verificacion.leer(archivo));
+                    archivosLeidos.incrementAndGet();
+                } catch (IOException | TimeoutException e) {
+                    metadatos[i] = Verificacion.DESCONOCIDO;
+                }
+            }
+        }
+    }
+
+    /**
+     * SKU y tamaño de un archivo: solo los archivos con la misma clave pueden ser copias.
+     */
+    private record ArchivoPorTamano(long sku, long tamano) {
+    }
+
+    /**
+     * Un archivo de un directorio del índice (posición i en sus arreglos).
+     */
+    private record ArchivoIndexado(String relativa, IndiceCarpetas.Directorio dir, int i) {
+
+        long hash() {
+            return dir.hashes[i];
+        }
+
+        boolean apto(Verificacion verificacion) {
+            return verificacion == null || dir.metadatos == null || verificacion.apto(dir.metadatos[i]);
+        }
+
+        ArchivoLocal local(Path carpeta) {
+            return new ArchivoLocal(resolver(carpeta, relativa).resolve(dir.archivos[i]),
+                    dir.tamanos != null ? dir.tamanos[i] : -1, dir.fechasArchivos[i]);
+        }
+    }
+
+    /**
+     * Calcula el hash de los archivos pendientes, repartidos en subtareas como LeerMetadatos. El hash queda en
+     * el directorio del índice; si el archivo no responde a tiempo o no se puede leer queda sin calcular.
+     */
+    @SuppressWarnings("serial") // Nunca se serializa (ForkJoinTask es Serializable)
+    private static final class HashearArchivos extends RecursiveAction {
+        private static final int POR_TAREA = 16;
+
+        private final Path carpeta;
+        private final List<ArchivoIndexado> archivos;
+        private final int desde;
+        private final int hasta;
+
+        HashearArchivos(Path carpeta, List<ArchivoIndexado> archivos, int desde, int hasta) {
+            this.carpeta = carpeta;
+            this.archivos = archivos;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde > POR_TAREA) {
+                int medio = (desde + hasta) >>> 1;
+                invokeAll(new HashearArchivos(carpeta, archivos, desde, medio),
+                        new HashearArchivos(carpeta, archivos, medio, hasta));
+                return;
+            }
+            for (int k = desde; k < hasta; k++) {
+                ArchivoIndexado archivo = archivos.get(k);
+                Path ruta = resolver(carpeta, archivo.relativa()).resolve(archivo.dir().archivos[archivo.i()]);
+                try {
+                    archivo.dir().hashes[archivo.i()] = conPlazo(() -> HashContenido.calcular(ruta));
+                    archivosHasheados.incrementAndGet();
+                } catch (IOException | TimeoutException e) {
+                    // Sin hash: se cuenta como distinto
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuenta los videos (sin recursión) de una carpeta de SKU.
+     */
+    @SuppressWarnings("serial") // Nunca se serializa (ForkJoinTask es Serializable)
+    private static final class ContarVideos extends RecursiveAction {
+        private final Pasada pasada;
+        private final Path carpetaSku;
+        private final String nombre;
+        private final long skuKey;
+
+        ContarVideos(Pasada pasada, Path carpetaSku, String nombre, long skuKey) {
+            this.pasada = pasada;
+            this.carpetaSku = carpetaSku;
+            this.nombre = nombre;
+            this.skuKey = skuKey;
+        }
+
+        @Override
+        protected void compute() {
+            String[] extensiones = pasada.extensiones;
+            IndiceCarpetas.Directorio anterior = pasada.reutilizable(nombre);
+            ArchivosListados videos = pasada.porArchivo() ? new ArchivosListados() : null;
+            IndiceCarpetas.Directorio dir;
+            try {
+                // Siguiendo enlaces, como el Files.list + Files.isRegularFile original
+                dir = conPlazo(() -> obtenerDirectorio(carpetaSku, true, anterior, videos != null,
+                        (archivo, attrs, nuevo, conteos) -> {
+                            String nombreArchivo = archivo.getFileName().toString();
+                            if (attrs.isRegularFile() && puntoExtension(nombreArchivo, extensiones) >= 0) {
+                                conteos.sumar(skuKey, 1);
+                                if (videos != null) {
+                                    videos.agregar(nombreArchivo, attrs.lastModifiedTime().toMillis(), attrs.size(),
+                                            skuKey);
+                                }
+                            }
+                        }));
+            } catch (TimeoutException e) {
+                pasada.vencidos.add(nombre);
+                return;
+            } catch (IOException e) {
+                // Ignorar errores en carpetas individuales
+                return;
+            }
+            if (videos != null && dir != anterior) {
+                completarArchivos(pasada, carpetaSku, dir, pasada.anteriores.get(nombre), videos);
+            }
+            pasada.nuevos.put(nombre, dir);
+            pasada.sumar(dir);
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Índice de imágenes y videos que queda en memoria mientras la app está abierta.
+ * Se arma una vez y después se mantiene al día con eventos de WatchService sobre las carpetas, así cada
+ * ejecución lee los conteos al instante en lugar de recorrer las carpetas. Como en unidades de red los eventos
+ * no siempre llegan, además se reindexa periódicamente; la reindexación es incremental (IndexadorCarpetas
+ * solo vuelve a listar los directorios cuya fecha de modificación cambió).
+ */
+final class IndiceResidente {
+
+    private static final long MINUTOS_REINDEXADO = 5;
+    // Tras un evento se espera un poco para agrupar ráfagas (copiar una carpeta genera muchos eventos)
+    private static final long ESPERA_EVENTOS_MS = 2000;
+    // Se vigila cada directorio indexado, hasta este tope
+    private static final int MAX_DIRECTORIOS_VIGILADOS = 4096;
+
+    private static IndiceResidente actual;
+
+    private final Carpeta imagenes;
+    private final Carpeta videos;
+    private final WatchService watcher;
+    private final Map<WatchKey, Carpeta> claves = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService programador;
+    private final Thread hiloEventos;
+
+    /**
+     * Devuelve el índice residente de esas carpetas, creándolo (o reemplazando el de otras carpetas) si hace falta.
+     */
+    static synchronized IndiceResidente obtener(Path carpetaImagenes, Set<String> extensionesImagenes,
+            Path carpetaVideos, Set<String> extensionesVideos, boolean verificarResolucion, boolean verificarClips,
+            boolean descartarDuplicados, boolean conArchivos) throws IOException {
+        if (actual != null && actual.imagenes.raiz.equals(carpetaImagenes)
+                && actual.videos.raiz.equals(carpetaVideos)
+                && actual.imagenes.verificar == verificarResolucion && actual.videos.verificar == verificarClips
+                && actual.imagenes.deduplicar == descartarDuplicados && actual.imagenes.conArchivos == conArchivos) {
+            return actual;
+        }
+        detener();
+        actual = new IndiceResidente(carpetaImagenes, extensionesImagenes, carpetaVideos, extensionesVideos,
+                verificarResolucion, verificarClips, descartarDuplicados, conArchivos);
+        return actual;
+    }
+
+    static synchronized void detener() {
+        if (actual == null) {
+            return;
+        }
+        actual.programador.shutdownNow();
+        try {
+            actual.watcher.close();
+        } catch (IOException e) {
+            AppLogger.warn("Error cerrando la vigilancia de carpetas: " + e.getMessage());
+        }
+        actual.hiloEventos.interrupt();
+        actual = null;
+    }
+
+    private IndiceResidente(Path carpetaImagenes, Set<String> extensionesImagenes, Path carpetaVideos,
+            Set<String> extensionesVideos, boolean verificarResolucion, boolean verificarClips,
+            boolean descartarDuplicados, boolean conArchivos) throws IOException {
+        this.imagenes = new Carpeta(carpetaImagenes, extensionesImagenes, false, verificarResolucion,
+                descartarDuplicados, conArchivos);
+        this.videos = new Carpeta(carpetaVideos, extensionesVideos, true, verificarClips, false, false);
+        this.watcher = FileSystems.getDefault().newWatchService();
+
+        this.programador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "indice-residente");
+            t.setDaemon(true);
+            return t;
+        });
+        this.programador.scheduleWithFixedDelay(() -> {
+            imagenes.actualizar();
+            videos.actualizar();
+        }, MINUTOS_REINDEXADO, MINUTOS_REINDEXADO, TimeUnit.MINUTES);
+
+        this.hiloEventos = new Thread(this::procesarEventos, "indice-residente-eventos");
+        this.hiloEventos.setDaemon(true);
+        this.hiloEventos.start();
+        AppLogger.info("Índice residente activado (reindexado cada " + MINUTOS_REINDEXADO + " minutos).");
+    }
+
+    /**
+     * Conteo de imágenes por SKU. Si skusObjetivo no es null, solo esos SKUs.
+     */
+    IndexadorCarpetas.Resultado imagenes(MapaSkuConteo skusObjetivo) {
+        return imagenes.conteos(skusObjetivo);
+    }
+
+    /**
+     * Conteo de videos por SKU. Si skusObjetivo no es null, solo esos SKUs.
+     */
+    IndexadorCarpetas.Resultado videos(MapaSkuConteo skusObjetivo) {
+        return videos.conteos(skusObjetivo);
+    }
+
+    private void procesarEventos() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                // El detalle de los eventos no importa: la reindexación encuentra los directorios cambiados, y
+                // con lo leído de cada archivo también los archivos modificados (compara fecha y tamaño)
+                key.pollEvents();
+                Carpeta carpeta = claves.get(key);
+                if (!key.reset()) {
+                    claves.remove(key);
+                }
+                if (carpeta != null) {
+                    carpeta.marcarCambio();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Índice detenido
+        }
+    }
+
+    /**
+     * Conteos de una de las carpetas y su estado de vigilancia.
+     */
+    private final class Carpeta {
+        private final Path raiz;
+        private final Set<String> extensiones;
+        private final boolean esVideos;
+        private final boolean verificar; // resolución de imágenes o formato de clips
+        private final boolean deduplicar; // solo imágenes
+        private final boolean conArchivos; // solo imágenes: lista de archivos por SKU
+        // Eventos que se vigilan: altas y bajas (un renombrado llega como ambas), y con lo leído de cada archivo
+        // también las modificaciones, porque sobrescribir un archivo puede cambiar los aptos o los duplicados
+        private final WatchEvent.Kind<?>[] eventos;
+
+        private volatile IndexadorCarpetas.Resultado resultado;
+        private volatile boolean cambiada = true;
+        // Aparte del lock de actualizar(), para que el hilo de eventos no espere a que termine una indexación
+        private final Object lockPendiente = new Object();
+        private ScheduledFuture<?> pendiente;
+
+        Carpeta(Path raiz, Set<String> extensiones, boolean esVideos, boolean verificar, boolean deduplicar,
+                boolean conArchivos) {
+            this.raiz = raiz;
+            this.extensiones = extensiones;
+            this.esVideos = esVideos;
+            this.verificar = verificar;
+            this.deduplicar = deduplicar;
+            this.conArchivos = conArchivos;
+            this.eventos = verificar || deduplicar || conArchivos
+                    ? new WatchEvent.Kind<?>[] { StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY }
+                    : new WatchEvent.Kind<?>[] { StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE };
+        }
+
+        IndexadorCarpetas.Resultado conteos(MapaSkuConteo skusObjetivo) {
+            if (cambiada) {
+                actualizar();
+            }
+            // El resultado publicado no se modifica más (cada actualización crea uno nuevo)
+            IndexadorCarpetas.Resultado actual = resultado;
+            if (skusObjetivo == null) {
+                return actual;
+            }
+            return new IndexadorCarpetas.Resultado(filtrar(actual.conteos(), skusObjetivo),
+                    actual.aptas() != null ? filtrar(actual.aptas(), skusObjetivo) : null, actual.sinListar(),
+                    actual.todoIncompleto(), actual.skusIncompletos(), actual.archivos());
+        }
+
+        private static MapaSkuConteo filtrar(MapaSkuConteo todos, MapaSkuConteo skusObjetivo) {
+            MapaSkuConteo filtrados = new MapaSkuConteo(skusObjetivo.size());
+            skusObjetivo.forEach((sku, marca) -> {
+                int cantidad = todos.get(sku);
+                if (cantidad > 0) {
+                    filtrados.sumar(sku, cantidad);
+                }
+            });
+            return filtrados;
+        }
+
+        void marcarCambio() {
+            cambiada = true;
+            synchronized (lockPendiente) {
+                if (pendiente == null || pendiente.isDone()) {
+                    try {
+                        pendiente = programador.schedule(this::actualizar, ESPERA_EVENTOS_MS,
+                                TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // Índice detenido
+                    }
+                }
+            }
+        }
+
+        synchronized void actualizar() {
+            // Se baja la marca antes de indexar: un evento durante la indexación la vuelve a subir
+            cambiada = false;
+            try {
+                // Siempre sin filtro de SKUs: el filtro se aplica al leer
+                resultado = esVideos
+                        ? IndexadorCarpetas.indexarVideos(raiz, extensiones, null, verificar)
+                        : IndexadorCarpetas.indexarArchivos(raiz, extensiones, null, verificar, deduplicar,
+                                conArchivos);
+                if (resultado.incompleto()) {
+                    // Hubo carpetas que no respondieron: se vuelven a intentar en la próxima lectura
+                    cambiada = true;
+                }
+                vigilar();
+            } catch (Exception e) {
+                cambiada = true;
+                if (resultado == null) {
+                    resultado = IndexadorCarpetas.Resultado.vacio();
+                }
+                AppLogger.warn("Error actualizando el índice residente de " + raiz + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Registra en el WatchService cada directorio indexado de la carpeta (los nuevos se suman en cada
+         * actualización; hasta encontrarlos los cubre la reindexación).
+         */
+        private void vigilar() {
+            List<Path> directorios = IndexadorCarpetas.directoriosIndexados(raiz, extensiones, esVideos);
+            int vigilados = 0;
+            for (Path directorio : directorios) {
+                if (vigilados >= MAX_DIRECTORIOS_VIGILADOS) {
+                    AppLogger.warn("Más de " + MAX_DIRECTORIOS_VIGILADOS + " carpetas en " + raiz
+                            + ": el resto se actualiza con la reindexación periódica.");
+                    break;
+                }
+                try {
+                    // Registrar de nuevo un directorio ya vigilado devuelve la misma clave
+                    claves.put(directorio.register(watcher, eventos), this);
+                    vigilados++;
+                } catch (IOException e) {
+                    // Directorio borrado o inaccesible: lo cubre la reindexación
+                }
+            }
+        }
+    }
+
+}
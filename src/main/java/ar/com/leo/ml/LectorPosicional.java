@@ -0,0 +1,85 @@
+package ar.com.leo.ml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lecturas posicionales de enteros sobre un bloque de BLOQUE bytes; se relee solo si la posición cae fuera del
+ * bloque. Sirve para leer cabeceras de archivos saltando a la posición que hace falta sin leer el resto.
+ * Los métodos devuelven -1 si la posición está más allá del final del archivo.
+ */
+final class LectorPosicional {
+
+    private static final int BLOQUE = 4096;
+
+    private final FileChannel canal;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOQUE);
+    private long inicio = -1;
+    private int largo;
+
+    LectorPosicional(FileChannel canal) {
+        this.canal = canal;
+    }
+
+    int u8(long pos) throws IOException {
+        if (pos < inicio || pos >= inicio + largo || inicio == -1) {
+            buffer.clear();
+            int leidos = 0;
+            while (buffer.hasRemaining()) {
+                int n = canal.read(buffer, pos + leidos);
+                if (n < 0) {
+                    break;
+                }
+                leidos += n;
+            }
+            inicio = pos;
+            largo = leidos;
+            if (leidos == 0) {
+                return -1;
+            }
+        }
+        return buffer.get((int) (pos - inicio)) & 0xFF;
+    }
+
+    int u16be(long pos) throws IOException {
+        int a = u8(pos);
+        int b = u8(pos + 1);
+        return a < 0 || b < 0 ? -1 : (a << 8) | b;
+    }
+
+    int u16le(long pos) throws IOException {
+        int a = u8(pos);
+        int b = u8(pos + 1);
+        return a < 0 || b < 0 ? -1 : (b << 8) | a;
+    }
+
+    long u24le(long pos) throws IOException {
+        int a = u8(pos);
+        int b = u8(pos + 1);
+        int c = u8(pos + 2);
+        return a < 0 || b < 0 || c < 0 ? -1 : ((long) c << 16) | (b << 8) | a;
+    }
+
+    long u32be(long pos) throws IOException {
+        int a = u16be(pos);
+        int b = u16be(pos + 2);
+        return a < 0 || b < 0 ? -1 : ((long) a << 16) | b;
+    }
+
+    long u32le(long pos) throws IOException {
+        int a = u16le(pos);
+        int b = u16le(pos + 2);
+        return a < 0 || b < 0 ? -1 : ((long) b << 16) | a;
+    }
+
+    /**
+     * Entero de 64 bits big-endian; -1 también si no entra en un long positivo.
+     */
+    long u64be(long pos) throws IOException {
+        long a = u32be(pos);
+        long b = u32be(pos + 4);
+        return a < 0 || b < 0 || a > Integer.MAX_VALUE ? -1 : (a << 32) | b;
+    }
+
+}
@@ -0,0 +1,172 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.Util;
+import ar.com.leo.ml.model.Redirecciones;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static ar.com.leo.HttpRetryHandler.BASE_SECRET_DIR;
+
+/**
+ * Redirecciones de permalinks descubiertas al verificar los videos. En la siguiente ejecución la página se pide
+ * directo a la URL nueva, en lugar de pasar cada vez por la redirección. Se guardan en la carpeta de caché al
+ * cerrar, si cambió algo.
+ * <p>
+ * Solo se guardan las mudanzas: redirecciones permanentes (301/308) a otra publicación del mismo sitio. Una
+ * temporal puede ser al login, a una verificación de cuenta o a un captcha, que responden 200 sin el video.
+ */
+final class MapaRedirecciones implements Closeable {
+
+    // Redirecciones encadenadas que se siguen como mucho (evita ciclos)
+    private static final int SALTOS_MAXIMOS = 5;
+
+    // Id de publicación en la ruta: /MLA-123456789-titulo, /titulo/p/MLA123456, /up/MLAU123456
+    private static final Pattern ID_PUBLICACION = Pattern.compile("/[A-Z]{3}U?-?\\d{6,}");
+
+    private static final Path ARCHIVO = BASE_SECRET_DIR.resolveSibling("cache").resolve("redirecciones.json");
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, String> urls;
+
+    private final AtomicLong nuevas = new AtomicLong();
+    private final AtomicLong usadas = new AtomicLong();
+    private final AtomicLong olvidadas = new AtomicLong();
+
+    private MapaRedirecciones(Redirecciones guardadas) {
+        this.urls = new ConcurrentHashMap<>(guardadas.urls);
+    }
+
+    /**
+     * Crea el mapa con las redirecciones de las ejecuciones anteriores (si hay).
+     */
+    static MapaRedirecciones cargar() {
+        if (Files.exists(ARCHIVO)) {
+            try {
+                Redirecciones guardadas = mapper.readValue(ARCHIVO.toFile(), Redirecciones.class);
+                if (guardadas.version == Redirecciones.VERSION && guardadas.urls != null) {
+                    return new MapaRedirecciones(guardadas);
+                }
+            } catch (Exception e) {
+                AppLogger.warn("No se pudieron leer las redirecciones " + ARCHIVO + ": " + e.getMessage());
+            }
+        }
+        return new MapaRedirecciones(new Redirecciones());
+    }
+
+    /**
+     * La URL a la que termina redirigiendo url según lo visto hasta ahora (url misma si no se conoce ninguna).
+     */
+    String resolver(String url) {
+        String actual = url;
+        for (int i = 0; i < SALTOS_MAXIMOS; i++) {
+            String siguiente = urls.get(actual);
+            if (siguiente == null) {
+                break;
+            }
+            actual = siguiente;
+        }
+        return actual;
+    }
+
+    /**
+     * true si la respuesta llegó por redirecciones permanentes (todas 301 o 308) a una publicación del mismo
+     * sitio: la única redirección que se registra.
+     */
+    static boolean esMudanza(HttpResponse<?> response) {
+        URI origen = response.request().uri();
+        Optional<? extends HttpResponse<?>> anterior = response.previousResponse();
+        if (anterior.isEmpty()) {
+            return false;
+        }
+        while (anterior.isPresent()) {
+            int status = anterior.get().statusCode();
+            if (status != 301 && status != 308) {
+                return false;
+            }
+            origen = anterior.get().request().uri();
+            anterior = anterior.get().previousResponse();
+        }
+        return esPublicacion(response.uri(), origen);
+    }
+
+    /**
+     * true si destino es una página de publicación (https, con id en la ruta) del mismo sitio que origen.
+     * Del mismo sitio: el mismo host, o un host del mismo dominio (articulo.mercadolibre.com.ar y
+     * www.mercadolibre.com.ar).
+     */
+    static boolean esPublicacion(URI destino, URI origen) {
+        if (!"https".equalsIgnoreCase(destino.getScheme()) || destino.getHost() == null || origen.getHost() == null
+                || destino.getRawPath() == null || !ID_PUBLICACION.matcher(destino.getRawPath()).find()) {
+            return false;
+        }
+        String host = destino.getHost().toLowerCase();
+        String hostOrigen = origen.getHost().toLowerCase();
+        if (host.equals(hostOrigen)) {
+            return true;
+        }
+        int punto = hostOrigen.indexOf('.');
+        String dominio = hostOrigen.substring(punto + 1);
+        // Sin un dominio de al menos dos partes (ej. "com.ar" no sirve: sería cualquier sitio)
+        return punto > 0 && dominio.chars().filter(c -> c == '.').count() >= 2 && host.endsWith("." + dominio);
+    }
+
+    /**
+     * Se pidió la página a la URL nueva en lugar de a la vieja.
+     */
+    void usada() {
+        usadas.incrementAndGet();
+    }
+
+    void registrar(String vieja, String nueva) {
+        if (!vieja.equals(nueva) && !nueva.equals(urls.put(vieja, nueva))) {
+            nuevas.incrementAndGet();
+        }
+    }
+
+    /**
+     * La URL nueva ya no existe: se vuelve a pedir la vieja la próxima vez.
+     */
+    void olvidar(String vieja) {
+        if (urls.remove(vieja) != null) {
+            olvidadas.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (nuevas.get() + usadas.get() + olvidadas.get() > 0) {
+            AppLogger.info("URLs redirigidas: " + nuevas.get() + " nuevas, " + usadas.get()
+                    + " pedidas directo a la URL nueva, " + olvidadas.get() + " que ya no existían.");
+        }
+        if (nuevas.get() == 0 && olvidadas.get() == 0) {
+            return;
+        }
+        Redirecciones redirecciones = new Redirecciones();
+        redirecciones.urls = urls;
+        try {
+            Files.createDirectories(ARCHIVO.getParent());
+            // Se escribe aparte y se reemplaza de una vez (como el índice de carpetas)
+            Path temporal = Files.createTempFile(ARCHIVO.getParent(), "redirecciones-", ".tmp");
+            try {
+                mapper.writeValue(temporal.toFile(), redirecciones);
+                Util.reemplazarArchivo(temporal, ARCHIVO);
+            } finally {
+                Files.deleteIfExists(temporal);
+            }
+        } catch (Exception e) {
+            AppLogger.warn("No se pudieron guardar las redirecciones " + ARCHIVO + ": " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package ar.com.leo.ml;
+
+import java.util.Arrays;
+
+/**
+ * Mapa SKU (código de SkuCodec) → cantidad, con direccionamiento abierto sobre arrays primitivos: sin boxing
+ * ni un objeto por entrada. También sirve como conjunto de SKUs (contiene).
+ * No es thread-safe: para sumar desde varios hilos hay que sincronizar sobre el mapa.
+ */
+final class MapaSkuConteo {
+
+    // Los códigos válidos son >= 0, así que INVALIDO marca las posiciones libres
+    private static final long LIBRE = SkuCodec.INVALIDO;
+
+    @FunctionalInterface
+    interface Visitante {
+        void visitar(long sku, int cantidad);
+    }
+
+    private long[] claves;
+    private int[] valores;
+    private int cantidad;
+
+    MapaSkuConteo() {
+        this(16);
+    }
+
+    MapaSkuConteo(int capacidadEsperada) {
+        // Factor de carga máximo 0,5
+        int capacidad = Integer.highestOneBit(Math.max(4, capacidadEsperada) * 2 - 1) << 1;
+        claves = new long[capacidad];
+        valores = new int[capacidad];
+        Arrays.fill(claves, LIBRE);
+    }
+
+    void sumar(long sku, int n) {
+        if (sku == LIBRE) {
+            return;
+        }
+        int i = posicion(claves, sku);
+        if (claves[i] == sku) {
+            valores[i] += n;
+            return;
+        }
+        claves[i] = sku;
+        valores[i] = n;
+        if (++cantidad * 2 > claves.length) {
+            agrandar();
+        }
+    }
+
+    void agregar(long sku) {
+        if (!contiene(sku)) {
+            sumar(sku, 1);
+        }
+    }
+
+    int get(long sku) {
+        if (sku == LIBRE) {
+            return 0;
+        }
+        int i = posicion(claves, sku);
+        return claves[i] == sku ? valores[i] : 0;
+    }
+
+    boolean contiene(long sku) {
+        return sku != LIBRE && claves[posicion(claves, sku)] == sku;
+    }
+
+    int size() {
+        return cantidad;
+    }
+
+    void forEach(Visitante visitante) {
+        for (int i = 0; i < claves.length; i++) {
+            if (claves[i] != LIBRE) {
+                visitante.visitar(claves[i], valores[i]);
+            }
+        }
+    }
+
+    long[] claves() {
+        long[] resultado = new long[cantidad];
+        int j = 0;
+        for (long clave : claves) {
+            if (clave != LIBRE) {
+                resultado[j++] = clave;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Posición de la clave, o la posición libre donde iría (sondeo lineal).
+     */
+    private static int posicion(long[] claves, long sku) {
+        int mascara = claves.length - 1;
+        long h = sku * 0x9E3779B97F4A7C15L;
+        int i = (int) (h ^ (h >>> 32)) & mascara;
+        while (claves[i] != LIBRE && claves[i] != sku) {
+            i = (i + 1) & mascara;
+        }
+        return i;
+    }
+
+    private void agrandar() {
+        long[] clavesViejas = claves;
+        int[] valoresViejos = valores;
+        claves = new long[clavesViejas.length * 2];
+        valores = new int[clavesViejas.length * 2];
+        Arrays.fill(claves, LIBRE);
+        for (int j = 0; j < clavesViejas.length; j++) {
+            if (clavesViejas[j] != LIBRE) {
+                int i = posicion(claves, clavesViejas[j]);
+                claves[i] = clavesViejas[j];
+                valores[i] = valoresViejos[j];
+            }
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package ar.com.leo.ml;
 
+import ar.com.leo.HttpClientes;
 import ar.com.leo.HttpRetryHandler;
 import ar.com.leo.ml.model.MLCredentials;
 import ar.com.leo.ml.model.Producto;
@@ -13,14 +14,17 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import static ar.com.leo.HttpRetryHandler.BASE_SECRET_DIR;
@@ -30,13 +34,27 @@ public class MercadoLibreAPI {
     private static final Logger logger = LogManager.getLogger(MercadoLibreAPI.class);
     private static final Path MERCADOLIBRE_FILE = BASE_SECRET_DIR.resolve("ml_credentials.json");
     private static final Path TOKEN_FILE = BASE_SECRET_DIR.resolve("ml_tokens.json");
-    private static final Object TOKEN_LOCK = new Object();
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final HttpClient httpClient = HttpClient.newHttpClient();
-    private static final HttpRetryHandler retryHandler = new HttpRetryHandler(httpClient, 30000L, 5); // 5 requests por
-                                                                                                      // segundo
+    // 5 requests por segundo; los reintentos esperan desde 2 s (ver HttpRetryHandler)
+    private static final HttpRetryHandler retryHandler = new HttpRetryHandler(HttpClientes.principal(), 2000L, 5);
+    private static final GestorTokens gestorTokens = new GestorTokens(TOKEN_FILE, mapper,
+            vigentes -> refreshAccessToken(vigentes.refreshToken));
     private static MLCredentials mlCredentials;
-    private static TokensML tokens;
+
+    // GETs idénticos simultáneos comparten un solo request, y una respuesta 200 se reutiliza por MEMO_MS (un mismo
+    // user_product_id aparece en varios items; getItemByMLA y getItemNodeByMLA piden la misma URL)
+    private static final long MEMO_MS = 60_000;
+    private static final int MEMO_MAXIMO = 2_000;
+    private static final Map<String, GetCompartido> gets = new ConcurrentHashMap<>();
+    private static final AtomicLong getsEnviados = new AtomicLong();
+    private static final AtomicLong getsCompartidos = new AtomicLong();
+
+    private record GetCompartido(CompletableFuture<HttpResponse<String>> respuesta, long inicio) {
+
+        boolean vencido(long ahora) {
+            return respuesta.isDone() && ahora - inicio > MEMO_MS;
+        }
+    }
 
     public static void main(String[] args) throws IOException {
         MercadoLibreAPI.inicializar();
@@ -59,13 +77,7 @@ public class MercadoLibreAPI {
         MercadoLibreAPI.verificarTokens();
         final String url = "https://api.mercadolibre.com/users/me";
 
-        final Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + tokens.accessToken)
-                .GET()
-                .build();
-
-        HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+        HttpResponse<String> response = get(url);
 
         if (response.statusCode() != 200) {
             throw new IOException("Error al obtener el user ID de ML: " + response.body());
@@ -77,7 +89,7 @@ public class MercadoLibreAPI {
     public static JsonNode obtenerDatosAplicacion(String appId) {
         Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
                 .uri(URI.create("https://api.mercadolibre.com/applications/" + appId))
-                .header("Authorization", "Bearer " + tokens.accessToken)
+                .header("Authorization", "Bearer " + gestorTokens.accessToken())
                 .GET()
                 .build();
 
@@ -97,13 +109,7 @@ public class MercadoLibreAPI {
 
         final String url = "https://api.mercadolibre.com/items/" + itemId + "/variations";
 
-        final Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + tokens.accessToken)
-                .GET()
-                .build();
-
-        HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+        HttpResponse<String> response = get(url);
 
         if (response.statusCode() != 200) {
             logger.warn("Error al obtener las variaciones item: " + itemId + ": " + response.body());
@@ -128,11 +134,15 @@ public class MercadoLibreAPI {
             final String finalUrl = url;
             Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
                     .uri(URI.create(finalUrl))
-                    .header("Authorization", "Bearer " + tokens.accessToken)
+                    .header("Authorization", "Bearer " + gestorTokens.accessToken())
                     .GET()
                     .build();
 
             HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+            if (response == null || Thread.currentThread().isInterrupted()) {
+                // Se canceló la ejecución (sendWithRetry devuelve null al interrumpirse)
+                throw new InterruptedException("Recorrido de items cancelado");
+            }
 
             if (response.statusCode() != 200) {
                 logger.warn("ML - Error al obtener items: " + response.body());
@@ -169,17 +179,58 @@ public class MercadoLibreAPI {
         return items;
     }
 
+    /**
+     * Busca los items del vendedor cuyo SELLER_SKU (del item o de alguna variación) coincide con el indicado.
+     * La coincidencia la resuelve ML y es exacta: un SKU abreviado no encuentra SELLER_SKU más largos.
+     */
+    public static List<String> obtenerItemsIdPorSku(String userId, String sku) {
+        MercadoLibreAPI.verificarTokens();
+        final List<String> items = new ArrayList<>();
+        final int limite = 50;
+        int offset = 0;
+        int total;
+
+        do {
+            final String url = String.format(
+                    "https://api.mercadolibre.com/users/%s/items/search?seller_sku=%s&offset=%d&limit=%d", userId,
+                    URLEncoder.encode(sku, StandardCharsets.UTF_8), offset, limite);
+
+            Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("Authorization", "Bearer " + gestorTokens.accessToken())
+                    .GET()
+                    .build();
+
+            HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+
+            if (response.statusCode() != 200) {
+                logger.warn("ML - Error al buscar items con SKU " + sku + ": " + response.body());
+                return items;
+            }
+
+            JsonNode root = mapper.readTree(response.body());
+            JsonNode results = root.path("results");
+            if (results.isArray()) {
+                for (JsonNode item : results) {
+                    items.add(item.asString());
+                }
+            }
+            if (results.isEmpty()) {
+                break;
+            }
+
+            total = root.path("paging").path("total").asInt(0);
+            offset += limite;
+        } while (offset < total);
+
+        return items;
+    }
+
     public static Producto getItemByMLA(String itemId) {
         MercadoLibreAPI.verificarTokens();
         final String url = "https://api.mercadolibre.com/items/" + itemId;
 
-        final Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + tokens.accessToken)
-                .GET()
-                .build();
-
-        HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+        HttpResponse<String> response = get(url);
 
         if (response.statusCode() != 200) {
             logger.warn("ML - No se pudo obtener item: " + itemId + ": " + response.body());
@@ -195,13 +246,7 @@ public class MercadoLibreAPI {
 
         final String url = "https://api.mercadolibre.com/items/" + itemId;
 
-        final Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + tokens.accessToken)
-                .GET()
-                .build();
-
-        HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+        HttpResponse<String> response = get(url);
 
         if (response.statusCode() != 200) {
             logger.warn("ML - Error al obtener el producto: " + response.body());
@@ -215,13 +260,7 @@ public class MercadoLibreAPI {
 
         final String url = "https://api.mercadolibre.com/user-products/" + mlau;
 
-        final Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + tokens.accessToken)
-                .GET()
-                .build();
-
-        HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+        HttpResponse<String> response = get(url);
 
         if (response.statusCode() != 200) {
             logger.warn("ML - Error al obtener el producto: " + response.body());
@@ -241,13 +280,7 @@ public class MercadoLibreAPI {
         MercadoLibreAPI.verificarTokens();
         final String url = "https://api.mercadolibre.com/item/" + itemId + "/performance";
 
-        final Supplier<HttpRequest> requestBuilder = () -> HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + tokens.accessToken)
-                .GET()
-                .build();
-
-        HttpResponse<String> response = retryHandler.sendWithRetry(requestBuilder);
+        HttpResponse<String> response = get(url);
 
         if (response.statusCode() != 200) {
             logger.warn("ML - Error al obtener performance del item " + itemId + ": " + response.body());
@@ -257,6 +290,63 @@ public class MercadoLibreAPI {
         return mapper.readTree(response.body());
     }
 
+    /**
+     * GET autenticado a la API. Si ya hay uno en curso (o reciente) a la misma URL, espera y devuelve esa misma
+     * respuesta en lugar de repetir el request. Las respuestas que no son 200 no se recuerdan.
+     */
+    private static HttpResponse<String> get(String url) {
+        long ahora = System.currentTimeMillis();
+        GetCompartido propio = new GetCompartido(new CompletableFuture<>(), ahora);
+        GetCompartido vigente = gets.compute(url, (k, v) -> v != null && !v.vencido(ahora) ? v : propio);
+        if (vigente != propio) {
+            getsCompartidos.incrementAndGet();
+            return vigente.respuesta().join();
+        }
+
+        getsEnviados.incrementAndGet();
+        try {
+            HttpResponse<String> response = retryHandler.sendWithRetry(() -> HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("Authorization", "Bearer " + gestorTokens.accessToken())
+                    .GET()
+                    .build());
+            propio.respuesta().complete(response);
+            if (response == null || response.statusCode() != 200) {
+                gets.remove(url, propio);
+            }
+            return response;
+        } catch (RuntimeException e) {
+            propio.respuesta().completeExceptionally(e);
+            gets.remove(url, propio);
+            throw e;
+        } finally {
+            if (gets.size() > MEMO_MAXIMO) {
+                gets.values().removeIf(g -> g.vencido(ahora));
+            }
+        }
+    }
+
+    /**
+     * GETs a la API enviados en esta ejecución.
+     */
+    public static long getsEnviados() {
+        return getsEnviados.get();
+    }
+
+    /**
+     * GETs que no se enviaron porque esperaron (o reutilizaron) la respuesta de uno idéntico.
+     */
+    public static long getsCompartidos() {
+        return getsCompartidos.get();
+    }
+
+    /**
+     * Requests a la API que se permiten en curso a la vez (se ajusta según la latencia).
+     */
+    public static int concurrencia() {
+        return retryHandler.concurrencia();
+    }
+
     // TOKENS
     // -----------------------------------------------------------------------------------------------------------------------------------------------------------------------------
     // --- MÉTODO PRINCIPAL ---
@@ -267,42 +357,38 @@ public class MercadoLibreAPI {
             return false;
         }
 
-        tokens = cargarTokens();
+        TokensML tokens = cargarTokens();
         if (tokens == null) {
             // No hay tokens → pedir autorización
             logger.info("ML - No hay tokens de ML, solicitando autorización...");
             final String code = pedirCodeManual();
             tokens = obtenerAccessToken(code);
-            guardarTokens(tokens);
+            gestorTokens.guardar(tokens);
         }
+        gestorTokens.publicar(tokens);
+        gets.clear();
+        retryHandler.reiniciarPresupuesto();
+        getsEnviados.set(0);
+        getsCompartidos.set(0);
 
         return true;
     }
 
     // --- MÉTODO DE VERIFICACIÓN (centralizado) ---
+    /**
+     * No bloquea: el token se renueva en segundo plano antes de vencer (ver GestorTokens). Si ya está por vencer
+     * y no hay una renovación en curso, la pide.
+     */
     public static void verificarTokens() {
-        // 1️⃣ Chequeo rápido SIN bloqueo
-        if (!tokens.isExpired()) {
-            return;
-        }
-
-        // 2️⃣ Solo bloquear si realmente está vencido
-        synchronized (TOKEN_LOCK) {
-            // 3️⃣ Chequeo nuevamente dentro del lock (doble chequeo)
-            if (!tokens.isExpired()) {
-                return; // otro thread ya lo renovó
-            }
+        gestorTokens.accessToken();
+    }
 
-            logger.info("ML - Access token expirado, renovando...");
-            try {
-                tokens = refreshAccessToken(tokens.refreshToken);
-                tokens.issuedAt = System.currentTimeMillis();
-                guardarTokens(tokens);
-                logger.info("ML - Token renovado correctamente.");
-            } catch (Exception e) {
-                logger.warn("ML - Error al renovar token: " + e.getMessage());
-            }
-        }
+    /**
+     * La API rechazó el access token con el que se hizo un request (401). Se completa cuando se renovó (enseguida
+     * si ya hay uno más nuevo); true si conviene reintentar el request.
+     */
+    public static CompletableFuture<Boolean> tokenRechazado(String accessToken) {
+        return gestorTokens.rechazado(accessToken);
     }
 
     // --- MÉTODOS AUXILIARES ---
@@ -326,15 +412,6 @@ public class MercadoLibreAPI {
         }
     }
 
-    private static void guardarTokens(TokensML tokens) {
-        try {
-            mapper.writerWithDefaultPrettyPrinter().writeValue(TOKEN_FILE.toFile(), tokens);
-            logger.info("ML - Tokens guardados en " + TOKEN_FILE);
-        } catch (Exception e) {
-            logger.warn("Error guardando tokens ML: " + e.getMessage());
-        }
-    }
-
     private static String pedirCodeManual() {
         String authURL = "https://auth.mercadolibre.com.ar/authorization?response_type=code"
                 + "&client_id=" + mlCredentials.clientId
@@ -0,0 +1,236 @@
+package ar.com.leo.ml;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lee la duración y las dimensiones de un video desde las cabeceras del contenedor, sin leer los datos de
+ * audio/video: en MP4/MOV/M4V se saltan las cajas por su tamaño hasta moov (mvhd: duración, tkhd: dimensiones),
+ * que puede estar al principio o al final del archivo; en AVI se lee la cabecera avih.
+ * Los demás contenedores (MKV, WebM, WMV, FLV) quedan como DESCONOCIDO.
+ * Los datos van empaquetados en un long (duración en ms << 32 | ancho << 16 | alto).
+ */
+final class MetadatosVideo {
+
+    // Formato de los clips de MercadoLibre: entre 10 y 60 segundos, vertical
+    static final int DURACION_MINIMA_S = 10;
+    static final int DURACION_MAXIMA_S = 60;
+    static final long DESCONOCIDO = -1L;
+
+    // Tope de cajas a recorrer (un archivo dañado no debería hacer leer todo el disco)
+    private static final int MAX_CAJAS = 4096;
+
+    private static final long RIFF = 0x52494646L;
+    private static final long AVI = 0x41564920L;
+    private static final long LIST = 0x4C495354L;
+    private static final long HDRL = 0x6864726CL;
+    private static final long AVIH = 0x61766968L;
+    private static final long FTYP = 0x66747970L;
+    private static final long MOOV = 0x6D6F6F76L;
+    private static final long MDAT = 0x6D646174L;
+    private static final long FREE = 0x66726565L;
+    private static final long SKIP = 0x736B6970L;
+    private static final long WIDE = 0x77696465L;
+    private static final long MVHD = 0x6D766864L;
+    private static final long TRAK = 0x7472616BL;
+    private static final long TKHD = 0x746B6864L;
+
+    private MetadatosVideo() {
+    }
+
+    /**
+     * Duración y dimensiones del video, o DESCONOCIDO si el contenedor no se reconoce o está incompleto.
+     */
+    static long leer(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            LectorPosicional in = new LectorPosicional(canal);
+            if (in.u32be(0) == RIFF && in.u32be(8) == AVI) {
+                return leerAvi(in);
+            }
+            long primera = in.u32be(4);
+            if (primera == FTYP || primera == MOOV || primera == MDAT || primera == FREE || primera == SKIP
+                    || primera == WIDE) {
+                return leerMp4(in, canal.size());
+            }
+            return DESCONOCIDO;
+        }
+    }
+
+    /**
+     * true si el video tiene el formato de un clip. Si no se pudieron leer los datos se cuenta igual
+     * (no se descarta un video sin estar seguro).
+     */
+    static boolean apto(long metadatos) {
+        if (metadatos == DESCONOCIDO) {
+            return true;
+        }
+        long segundos = duracionMs(metadatos) / 1000;
+        return segundos >= DURACION_MINIMA_S && segundos <= DURACION_MAXIMA_S && alto(metadatos) > ancho(metadatos);
+    }
+
+    static long duracionMs(long metadatos) {
+        return metadatos >>> 32;
+    }
+
+    static int ancho(long metadatos) {
+        return (int) (metadatos >>> 16) & 0xFFFF;
+    }
+
+    static int alto(long metadatos) {
+        return (int) metadatos & 0xFFFF;
+    }
+
+    private static long empaquetar(long duracionMs, long ancho, long alto) {
+        if (duracionMs <= 0 || ancho <= 0 || alto <= 0) {
+            return DESCONOCIDO;
+        }
+        return (Math.min(duracionMs, Integer.MAX_VALUE) << 32) | (Math.min(ancho, 0xFFFF) << 16)
+                | Math.min(alto, 0xFFFF);
+    }
+
+    /**
+     * Busca moov entre las cajas de primer nivel y lee mvhd y el primer tkhd con dimensiones (la pista de video;
+     * las de audio tienen ancho y alto 0).
+     */
+    private static long leerMp4(LectorPosicional in, long tamano) throws IOException {
+        long[] moov = buscarCaja(in, 0, tamano, MOOV);
+        if (moov == null) {
+            return DESCONOCIDO;
+        }
+        long duracionMs = -1;
+        long[] dimensiones = null;
+        long pos = moov[0];
+        for (int i = 0; i < MAX_CAJAS && pos < moov[1]; i++) {
+            long[] caja = leerCaja(in, pos, moov[1]);
+            if (caja == null) {
+                break;
+            }
+            if (caja[2] == MVHD) {
+                duracionMs = leerMvhd(in, caja[0]);
+            } else if (caja[2] == TRAK && dimensiones == null) {
+                long[] tkhd = buscarCaja(in, caja[0], caja[1], TKHD);
+                if (tkhd != null) {
+                    dimensiones = leerTkhd(in, tkhd[0]);
+                }
+            }
+            pos = caja[1];
+        }
+        if (dimensiones == null) {
+            return DESCONOCIDO;
+        }
+        return empaquetar(duracionMs, dimensiones[0], dimensiones[1]);
+    }
+
+    private static long leerMvhd(LectorPosicional in, long datos) throws IOException {
+        int version = in.u8(datos);
+        long escala;
+        long duracion;
+        if (version == 1) {
+            escala = in.u32be(datos + 20);
+            duracion = in.u64be(datos + 24);
+        } else {
+            escala = in.u32be(datos + 12);
+            duracion = in.u32be(datos + 16);
+            if (duracion == 0xFFFFFFFFL) { // Duración desconocida
+                return -1;
+            }
+        }
+        if (escala <= 0 || duracion < 0) {
+            return -1;
+        }
+        return multiplicar(duracion, 1000) / escala;
+    }
+
+    /**
+     * Ancho y alto de la pista (tal como se ve: si la matriz la rota 90°, se intercambian), o null si no tiene.
+     */
+    private static long[] leerTkhd(LectorPosicional in, long datos) throws IOException {
+        int version = in.u8(datos);
+        // Versión + flags, fechas, id de pista, reservado, duración; después reservado, capa, grupo y volumen
+        long matriz = datos + (version == 1 ? 36 : 24) + 16;
+        long a = in.u32be(matriz);
+        long d = in.u32be(matriz + 16);
+        long ancho = in.u32be(matriz + 36);
+        long alto = in.u32be(matriz + 40);
+        if (ancho <= 0 || alto <= 0) {
+            return null;
+        }
+        // Punto fijo 16.16
+        ancho >>>= 16;
+        alto >>>= 16;
+        if (a == 0 && d == 0) {
+            return new long[] { alto, ancho };
+        }
+        return new long[] { ancho, alto };
+    }
+
+    /**
+     * Busca una caja por tipo entre desde y hasta (sin entrar en subcajas).
+     * Devuelve { inicio de los datos, fin de la caja, tipo } o null.
+     */
+    private static long[] buscarCaja(LectorPosicional in, long desde, long hasta, long tipo) throws IOException {
+        long pos = desde;
+        for (int i = 0; i < MAX_CAJAS && pos < hasta; i++) {
+            long[] caja = leerCaja(in, pos, hasta);
+            if (caja == null) {
+                return null;
+            }
+            if (caja[2] == tipo) {
+                return caja;
+            }
+            pos = caja[1];
+        }
+        return null;
+    }
+
+    /**
+     * Cabecera de la caja en pos: { inicio de los datos, fin de la caja, tipo }, o null si es inválida.
+     */
+    private static long[] leerCaja(LectorPosicional in, long pos, long hasta) throws IOException {
+        long tamano = in.u32be(pos);
+        long tipo = in.u32be(pos + 4);
+        long cabecera = 8;
+        if (tamano < 0 || tipo < 0) {
+            return null;
+        }
+        if (tamano == 1) { // Tamaño de 64 bits
+            tamano = in.u64be(pos + 8);
+            cabecera = 16;
+        } else if (tamano == 0) { // Hasta el final
+            tamano = hasta - pos;
+        }
+        if (tamano < cabecera || pos + tamano > hasta) {
+            return null;
+        }
+        return new long[] { pos + cabecera, pos + tamano, tipo };
+    }
+
+    private static long leerAvi(LectorPosicional in) throws IOException {
+        // RIFF AVI, LIST hdrl, avih: microsegundos por cuadro, ..., cuadros totales, ..., ancho, alto
+        if (in.u32be(12) != LIST || in.u32be(20) != HDRL || in.u32be(24) != AVIH) {
+            return DESCONOCIDO;
+        }
+        long microsPorCuadro = in.u32le(32);
+        long cuadros = in.u32le(48);
+        long ancho = in.u32le(64);
+        long alto = in.u32le(68);
+        if (microsPorCuadro < 0 || cuadros < 0) {
+            return DESCONOCIDO;
+        }
+        return empaquetar(multiplicar(microsPorCuadro, cuadros) / 1000, ancho, alto);
+    }
+
+    /**
+     * a * b, o -1 (desconocido) si no entra en un long: los campos vienen del archivo y pueden ser cualquier cosa.
+     */
+    private static long multiplicar(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.ml.model.ProductoData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Ordenamiento externo de filas del reporte para catálogos que no entran cómodos en memoria.
+ * Las filas se acumulan hasta un presupuesto de bytes; al superarlo se ordenan y se vuelcan a disco como
+ * registros binarios compactos (una "tanda" por archivo). Al final se hace un merge de k vías de todas las
+ * tandas más lo que quedó en memoria, entregando las filas ya ordenadas una por una al escritor del reporte.
+ */
+final class OrdenamientoExterno implements Closeable {
+
+    private static final int TAMANIO_BUFFER = 64 * 1024;
+
+    private final Comparator<ProductoData> orden;
+    private final long presupuestoBytes;
+
+    private final List<ProductoData> buffer = new ArrayList<>();
+    private final List<Tanda> tandas = new ArrayList<>();
+    private final List<DataInputStream> abiertos = new ArrayList<>();
+    private long bytesBuffer;
+    private int total;
+
+    private record Tanda(Path archivo, int filas) {
+    }
+
+    OrdenamientoExterno(Comparator<ProductoData> orden, long presupuestoBytes) {
+        this.orden = orden;
+        this.presupuestoBytes = presupuestoBytes;
+    }
+
+    synchronized void agregar(ProductoData p) throws IOException {
+        buffer.add(p);
+        bytesBuffer += estimarBytes(p);
+        total++;
+        if (bytesBuffer >= presupuestoBytes) {
+            volcarTanda();
+        }
+    }
+
+    synchronized int size() {
+        return total;
+    }
+
+    /**
+     * Devuelve todas las filas en orden. Se debe llamar una sola vez, después del último agregar().
+     */
+    synchronized Iterator<ProductoData> iterador() throws IOException {
+        buffer.sort(orden);
+        if (tandas.isEmpty()) {
+            return buffer.iterator();
+        }
+
+        AppLogger.info("Combinando " + tandas.size() + " tandas ordenadas en disco...");
+        PriorityQueue<Cursor> cola = new PriorityQueue<>((a, b) -> orden.compare(a.actual, b.actual));
+        for (Tanda tanda : tandas) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(tanda.archivo()), TAMANIO_BUFFER));
+            abiertos.add(in);
+            Cursor cursor = new Cursor(in, tanda.filas());
+            if (cursor.avanzar()) {
+                cola.add(cursor);
+            }
+        }
+        Cursor enMemoria = new Cursor(buffer.iterator());
+        if (enMemoria.avanzar()) {
+            cola.add(enMemoria);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !cola.isEmpty();
+            }
+
+            @Override
+            public ProductoData next() {
+                Cursor cursor = cola.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                ProductoData siguiente = cursor.actual;
+                try {
+                    if (cursor.avanzar()) {
+                        cola.add(cursor);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return siguiente;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (DataInputStream in : abiertos) {
+            in.close();
+        }
+        for (Tanda tanda : tandas) {
+            Files.deleteIfExists(tanda.archivo());
+        }
+        abiertos.clear();
+        tandas.clear();
+        buffer.clear();
+    }
+
+    private void volcarTanda() throws IOException {
+        buffer.sort(orden);
+        Path archivo = Files.createTempFile("buscador-video-tanda-", ".bin");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(archivo), TAMANIO_BUFFER))) {
+            for (ProductoData p : buffer) {
+                escribir(out, p);
+            }
+        }
+        tandas.add(new Tanda(archivo, buffer.size()));
+        AppLogger.info("Tanda " + tandas.size() + " volcada a disco (" + buffer.size() + " filas).");
+        buffer.clear();
+        bytesBuffer = 0;
+    }
+
+    /**
+     * Lector secuencial de una tanda (en disco o en memoria) con la fila actual a mano para el merge.
+     */
+    private static final class Cursor {
+        private final DataInputStream in;
+        private final Iterator<ProductoData> memoria;
+        private int restantes;
+        ProductoData actual;
+
+        Cursor(DataInputStream in, int filas) {
+            this.in = in;
+            this.memoria = null;
+            this.restantes = filas;
+        }
+
+        Cursor(Iterator<ProductoData> memoria) {
+            this.in = null;
+            this.memoria = memoria;
+        }
+
+        boolean avanzar() throws IOException {
+            if (memoria != null) {
+                actual = memoria.hasNext() ? memoria.next() : null;
+            } else if (restantes > 0) {
+                restantes--;
+                actual = leer(in);
+            } else {
+                actual = null;
+                in.close();
+            }
+            return actual != null;
+        }
+    }
+
+    // Formato del registro: strings como (presente, UTF modificado) y enteros/booleanos nativos
+
+    private static void escribir(DataOutputStream out, ProductoData p) throws IOException {
+        escribirTexto(out, p.status);
+        escribirTexto(out, p.mla);
+        out.writeInt(p.cantidadImagenes);
+        escribirTexto(out, p.tieneVideo);
+        escribirTexto(out, p.sku);
+        escribirTexto(out, p.permalink);
+        escribirTexto(out, p.tipoPublicacion);
+        out.writeBoolean(p.esVariacion);
+        escribirTexto(out, p.userProductId);
+        out.writeInt(p.imagenesCarpeta);
+        out.writeInt(p.videosCarpeta);
+        escribirTexto(out, p.conclusionImagenes);
+        escribirTexto(out, p.conclusionVideos);
+        out.writeInt(p.imagenesNoPublicadas);
+    }
+
+    private static ProductoData leer(DataInputStream in) throws IOException {
+        ProductoData p = new ProductoData();
+        p.status = leerTexto(in);
+        p.mla = leerTexto(in);
+        p.cantidadImagenes = in.readInt();
+        p.tieneVideo = leerTexto(in);
+        p.sku = leerTexto(in);
+        p.permalink = leerTexto(in);
+        p.tipoPublicacion = leerTexto(in);
+        p.esVariacion = in.readBoolean();
+        p.userProductId = leerTexto(in);
+        p.imagenesCarpeta = in.readInt();
+        p.videosCarpeta = in.readInt();
+        p.conclusionImagenes = leerTexto(in);
+        p.conclusionVideos = leerTexto(in);
+        p.imagenesNoPublicadas = in.readInt();
+        return p;
+    }
+
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        out.writeBoolean(texto != null);
+        if (texto != null) {
+            out.writeUTF(texto);
+        }
+    }
+
+    private static String leerTexto(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Estimación del espacio en heap de una fila: objeto + cada String (cabecera + 1 byte por char latin1).
+     */
+    private static long estimarBytes(ProductoData p) {
+        long bytes = 64;
+        for (String texto : new String[] { p.status, p.mla, p.tieneVideo, p.sku, p.permalink, p.tipoPublicacion,
+                p.userProductId, p.conclusionImagenes, p.conclusionVideos }) {
+            if (texto != null) {
+                bytes += 40 + texto.length();
+            }
+        }
+        return bytes;
+    }
+
+}
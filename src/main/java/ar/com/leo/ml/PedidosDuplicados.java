@@ -0,0 +1,173 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.HttpClientes;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Pedidos de páginas con duplicado para las respuestas demoradas ("hedging"): si la respuesta no empezó a llegar
+ * en el percentil 95 de lo que tardan las demás, se manda el mismo GET otra vez y se usa la primera respuesta que
+ * llegue (la otra se cancela). Así unas pocas páginas colgadas no estiran el final de la verificación de videos.
+ * <p>
+ * Los duplicados gastan permisos del mismo limitador de velocidad (si no hay uno libre en el momento no se
+ * duplica) y no pueden pasar de FRACCION_MAXIMA de los pedidos.
+ */
+final class PedidosDuplicados {
+
+    static final double FRACCION_MAXIMA = 0.05;
+
+    // Tiempos hasta la primera respuesta que se guardan para calcular el percentil
+    private static final int MUESTRAS = 200;
+    // Mínimo de muestras antes de duplicar (antes el percentil no dice nada)
+    private static final int MUESTRAS_MINIMAS = 20;
+    private static final int RECALCULO_CADA = 50;
+
+    private final RateLimiter rateLimiter;
+
+    private final long[] tiempos = new long[MUESTRAS];
+    private int cantidadTiempos;
+    private int siguiente;
+    private volatile long umbralMs = Long.MAX_VALUE;
+
+    private final AtomicLong pedidos = new AtomicLong();
+    private final AtomicLong duplicados = new AtomicLong();
+    private final AtomicLong ganados = new AtomicLong();
+
+    PedidosDuplicados(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Envía el GET (ya con su permiso de velocidad) y devuelve la primera respuesta.
+     */
+    HttpResponse<String> enviar(HttpRequest request) throws IOException, InterruptedException {
+        pedidos.incrementAndGet();
+        // Se registran todos los tiempos del pedido original, también los que superan el umbral
+        Envio primero = new Envio(request, this::registrar);
+        try {
+            primero.encabezados.get(umbralMs, TimeUnit.MILLISECONDS);
+            return esperar(primero.respuesta);
+        } catch (TimeoutException e) {
+            // Demorada: se duplica si hay permiso, y si no se sigue esperando la primera
+        } catch (ExecutionException e) {
+            return esperar(primero.respuesta);
+        }
+        if (primero.encabezados.isDone() || !puedeDuplicar()) {
+            return esperar(primero.respuesta);
+        }
+
+        Envio segundo = new Envio(request, null);
+        CompletableFuture<HttpResponse<String>> ganadora = new CompletableFuture<>();
+        primero.respuesta.whenComplete((r, e) -> terminar(ganadora, r, segundo.respuesta));
+        segundo.respuesta.whenComplete((r, e) -> terminar(ganadora, r, primero.respuesta));
+        try {
+            HttpResponse<String> response = esperar(ganadora);
+            if (segundo.respuesta.isDone() && segundo.respuesta.getNow(null) == response) {
+                ganados.incrementAndGet();
+            }
+            return response;
+        } finally {
+            // Cancelar una ya terminada no hace nada; la otra se aborta
+            primero.respuesta.cancel(true);
+            segundo.respuesta.cancel(true);
+        }
+    }
+
+    /**
+     * La primera respuesta que llega gana; si las dos fallan, el error es el de la segunda en fallar.
+     */
+    private static void terminar(CompletableFuture<HttpResponse<String>> ganadora, HttpResponse<String> response,
+            CompletableFuture<HttpResponse<String>> otra) {
+        if (response != null) {
+            ganadora.complete(response);
+        } else if (otra.isDone() && otra.isCompletedExceptionally()) {
+            otra.whenComplete((r, e) -> ganadora.completeExceptionally(e));
+        }
+    }
+
+    long duplicados() {
+        return duplicados.get();
+    }
+
+    /**
+     * Duplicados que respondieron antes que el pedido original.
+     */
+    long ganados() {
+        return ganados.get();
+    }
+
+    private boolean puedeDuplicar() {
+        while (true) {
+            long usados = duplicados.get();
+            if (usados + 1 > pedidos.get() * FRACCION_MAXIMA) {
+                return false;
+            }
+            if (duplicados.compareAndSet(usados, usados + 1)) {
+                if (rateLimiter.tryAcquire()) {
+                    return true;
+                }
+                duplicados.decrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    private synchronized void registrar(long ms) {
+        tiempos[siguiente] = ms;
+        siguiente = (siguiente + 1) % MUESTRAS;
+        boolean primerUmbral = cantidadTiempos + 1 == MUESTRAS_MINIMAS;
+        cantidadTiempos = Math.min(cantidadTiempos + 1, MUESTRAS);
+        // El primer umbral apenas hay suficientes muestras; después se recalcula cada RECALCULO_CADA
+        if (primerUmbral || cantidadTiempos >= MUESTRAS_MINIMAS && siguiente % RECALCULO_CADA == 0) {
+            long[] ordenados = Arrays.copyOf(tiempos, cantidadTiempos);
+            Arrays.sort(ordenados);
+            umbralMs = Math.max(1, ordenados[(int) (cantidadTiempos * 0.95) - 1]);
+        }
+    }
+
+    private HttpResponse<String> esperar(CompletableFuture<HttpResponse<String>> respuesta)
+            throws IOException, InterruptedException {
+        try {
+            return respuesta.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Un GET enviado: encabezados se completa apenas llega el status (la respuesta empezó a llegar), y alLlegar
+     * (si no es null) recibe los milisegundos que tardó.
+     */
+    private static final class Envio {
+
+        final CompletableFuture<Void> encabezados = new CompletableFuture<>();
+        final CompletableFuture<HttpResponse<String>> respuesta;
+
+        Envio(HttpRequest request, LongConsumer alLlegar) {
+            long inicio = System.nanoTime();
+            respuesta = HttpClientes.conRedirecciones().sendAsync(request, info -> {
+                if (alLlegar != null) {
+                    alLlegar.accept(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+                }
+                encabezados.complete(null);
+                return HttpClientes.ofString().apply(info);
+            });
+            // Si falla antes de los encabezados, que no se espere el umbral de más
+            respuesta.whenComplete((r, e) -> encabezados.complete(null));
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.ml.model.ProductoData;
+import org.apache.poi.common.usermodel.HyperlinkType;
+import org.apache.poi.ss.usermodel.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Escritura de encabezados, filas y estilos del reporte.
+ * La usan tanto la 2da hoja del Excel como los archivos del reporte particionado.
+ */
+final class ReporteExcel {
+
+    static final String[] ENCABEZADOS = { "ESTADO", "MLA", "IMAGENES", "VIDEOS", "SKU", "URL", "TIPO PUBLICACION",
+            "IMAGENES EN CARPETA", "VIDEOS EN CARPETA", "CONCLUSION IMAGENES", "CONCLUSION VIDEOS" };
+    // Columna extra, solo cuando se comparan las imágenes con las publicadas (al final para no mover las demás)
+    static final String ENCABEZADO_NO_PUBLICADAS = "IMAGENES NO PUBLICADAS";
+
+    // Anchos fijos (en caracteres) para hojas en streaming, donde autoSizeColumn no es viable
+    static final int[] ANCHOS = { 12, 34, 10, 8, 10, 60, 18, 20, 18, 50, 20, 22 };
+
+    static final String HOJA_INDICE_PARTES = "PARTES";
+
+    // Caché de estilos para evitar crear estilos duplicados
+    private static final Map<String, CellStyle> estiloCache = new HashMap<>();
+
+    private ReporteExcel() {
+    }
+
+    /**
+     * Encabezados del reporte; con conNoPublicadas se agrega la columna de imágenes no publicadas.
+     */
+    static String[] encabezados(boolean conNoPublicadas) {
+        if (!conNoPublicadas) {
+            return ENCABEZADOS;
+        }
+        String[] encabezados = Arrays.copyOf(ENCABEZADOS, ENCABEZADOS.length + 1);
+        encabezados[ENCABEZADOS.length] = ENCABEZADO_NO_PUBLICADAS;
+        return encabezados;
+    }
+
+    static void escribirEncabezado(Sheet sheet, CellStyle headerStyle, boolean conNoPublicadas) {
+        Row header = sheet.getRow(0);
+        if (header == null) {
+            header = sheet.createRow(0);
+        }
+        String[] encabezados = encabezados(conNoPublicadas);
+        for (int i = 0; i < encabezados.length; i++) {
+            header.createCell(i).setCellValue(encabezados[i]);
+        }
+        // Sin comparación no queda el encabezado de una ejecución anterior que sí comparó
+        Cell sobrante = header.getCell(encabezados.length);
+        if (sobrante != null) {
+            header.removeCell(sobrante);
+        }
+        aplicarStyleFila(header, headerStyle);
+    }
+
+    static void escribirFila(Workbook workbook, Row row, ProductoData p, CellStyle centeredStyle) {
+        row.createCell(0).setCellValue(p.status);
+        row.createCell(1).setCellValue(mlaDisplay(p));
+        row.createCell(2).setCellValue(p.cantidadImagenes);
+        row.createCell(3).setCellValue(p.tieneVideo);
+        row.createCell(4).setCellValue(p.sku);
+        row.createCell(5).setCellValue(p.permalink);
+        row.createCell(6).setCellValue(p.tipoPublicacion);
+
+        // Sin conclusiones el SKU no se pudo buscar en carpetas: se dejan vacías esas columnas
+        if (p.conclusionImagenes != null) {
+            row.createCell(7).setCellValue(p.imagenesCarpeta);
+            row.createCell(8).setCellValue(p.videosCarpeta);
+        }
+        // Solo se compara con la opción activa (sin ella la columna no existe)
+        if (p.imagenesNoPublicadas >= 0) {
+            row.createCell(11).setCellValue(p.imagenesNoPublicadas);
+        }
+
+        aplicarStyleFila(row, centeredStyle);
+
+        if (p.conclusionImagenes != null) {
+            Cell cellConclusionImagenes = row.createCell(9);
+            cellConclusionImagenes.setCellValue(p.conclusionImagenes);
+            cellConclusionImagenes.setCellStyle(obtenerEstiloConclusion(workbook, p.conclusionImagenes));
+
+            Cell cellConclusionVideos = row.createCell(10);
+            cellConclusionVideos.setCellValue(p.conclusionVideos);
+            cellConclusionVideos.setCellStyle(obtenerEstiloConclusion(workbook, p.conclusionVideos));
+        }
+    }
+
+    /**
+     * Formatea el MLA: si es variación, muestra también el MLAU.
+     */
+    static String mlaDisplay(ProductoData p) {
+        return p.esVariacion
+                ? (p.mla + " (VAR: " + p.userProductId + ")")
+                : p.mla;
+    }
+
+    static void aplicarAnchosFijos(Sheet sheet, boolean conNoPublicadas) {
+        for (int i = 0; i < encabezados(conNoPublicadas).length; i++) {
+            sheet.setColumnWidth(i, ANCHOS[i] * 256);
+        }
+    }
+
+    /**
+     * Crea (o reemplaza) la hoja índice con un vínculo a cada parte del reporte.
+     * Los vínculos son relativos a la carpeta del Excel para que sigan funcionando si se mueve todo junto.
+     */
+    static void escribirIndicePartes(Workbook workbook, List<ReporteParticionado.Parte> partes, Path carpetaExcel,
+            CellStyle headerStyle, CellStyle centeredStyle) {
+        int indiceExistente = workbook.getSheetIndex(HOJA_INDICE_PARTES);
+        if (indiceExistente >= 0) {
+            workbook.removeSheetAt(indiceExistente);
+        }
+        Sheet indice = workbook.createSheet(HOJA_INDICE_PARTES);
+
+        Row header = indice.createRow(0);
+        header.createCell(0).setCellValue("PARTE");
+        header.createCell(1).setCellValue("ESTADO");
+        header.createCell(2).setCellValue("FILAS");
+        header.createCell(3).setCellValue("ARCHIVO");
+        aplicarStyleFila(header, headerStyle);
+
+        CreationHelper helper = workbook.getCreationHelper();
+        int rowNum = 1;
+        for (ReporteParticionado.Parte parte : partes) {
+            Row row = indice.createRow(rowNum++);
+            row.createCell(0).setCellValue(parte.numero());
+            row.createCell(1).setCellValue(parte.estado() != null ? parte.estado() : "");
+            row.createCell(2).setCellValue(parte.filas());
+
+            String relativo = carpetaExcel.relativize(parte.archivo()).toString().replace('\\', '/');
+            Cell cellArchivo = row.createCell(3);
+            cellArchivo.setCellValue(relativo);
+            Hyperlink link = helper.createHyperlink(HyperlinkType.FILE);
+            link.setAddress(relativo.replace(" ", "%20"));
+            cellArchivo.setHyperlink(link);
+
+            aplicarStyleFila(row, centeredStyle);
+        }
+
+        for (int i = 0; i <= 3; i++) {
+            indice.autoSizeColumn(i);
+        }
+    }
+
+    static CellStyle crearHeaderStyle(Workbook workbook) {
+        CellStyle style = workbook.createCellStyle();
+
+        // Negrita
+        Font font = workbook.createFont();
+        font.setBold(true);
+        style.setFont(font);
+
+        // Fondo gris claro
+        style.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+        style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+        // Centrados
+        style.setAlignment(HorizontalAlignment.CENTER);
+        style.setVerticalAlignment(VerticalAlignment.CENTER);
+
+        // Bordes finos
+        style.setBorderTop(BorderStyle.THIN);
+        style.setBorderBottom(BorderStyle.THIN);
+        style.setBorderLeft(BorderStyle.THIN);
+        style.setBorderRight(BorderStyle.THIN);
+
+        return style;
+    }
+
+    static CellStyle crearCenteredStyle(Workbook workbook) {
+        CellStyle style = workbook.createCellStyle();
+        style.setAlignment(HorizontalAlignment.CENTER);
+        style.setVerticalAlignment(VerticalAlignment.CENTER);
+
+        // Bordes finos
+        style.setBorderTop(BorderStyle.THIN);
+        style.setBorderBottom(BorderStyle.THIN);
+        style.setBorderLeft(BorderStyle.THIN);
+        style.setBorderRight(BorderStyle.THIN);
+
+        return style;
+    }
+
+    private static CellStyle crearCenteredStyleWithColor(Workbook workbook, IndexedColors color) {
+        CellStyle style = workbook.createCellStyle();
+        style.setAlignment(HorizontalAlignment.CENTER);
+        style.setVerticalAlignment(VerticalAlignment.CENTER);
+        style.setFillForegroundColor(color.getIndex());
+        style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+        // Bordes finos
+        style.setBorderTop(BorderStyle.THIN);
+        style.setBorderBottom(BorderStyle.THIN);
+        style.setBorderLeft(BorderStyle.THIN);
+        style.setBorderRight(BorderStyle.THIN);
+
+        return style;
+    }
+
+    private static CellStyle obtenerEstiloConclusion(Workbook workbook, String conclusion) {
+        if (conclusion == null) {
+            return obtenerEstiloCached(workbook, "DEFAULT", () -> crearCenteredStyle(workbook));
+        }
+
+        String conclusionUpper = conclusion.toUpperCase();
+        String cacheKey;
+        CellStyle style;
+
+        if (conclusionUpper.equals("OK")) {
+            // Verde claro para OK
+            cacheKey = "OK";
+            style = obtenerEstiloCached(workbook, cacheKey,
+                    () -> crearCenteredStyleWithColor(workbook, IndexedColors.LIGHT_GREEN));
+        } else if (conclusionUpper.contains("CREAR")) {
+            // Rojo claro para CREAR
+            cacheKey = "CREAR";
+            style = obtenerEstiloCached(workbook, cacheKey,
+                    () -> crearCenteredStyleWithColor(workbook, IndexedColors.ROSE));
+        } else if (conclusionUpper.contains("SUBIR")) {
+            // Amarillo claro para SUBIR
+            cacheKey = "SUBIR";
+            style = obtenerEstiloCached(workbook, cacheKey,
+                    () -> crearCenteredStyleWithColor(workbook, IndexedColors.LIGHT_YELLOW));
+        } else {
+            // Estilo normal para otros casos (ERROR, etc.)
+            cacheKey = "DEFAULT";
+            style = obtenerEstiloCached(workbook, cacheKey, () -> crearCenteredStyle(workbook));
+        }
+
+        return style;
+    }
+
+    private static CellStyle obtenerEstiloCached(Workbook workbook, String key,
+            java.util.function.Supplier<CellStyle> styleCreator) {
+        // Usar el workbook como parte de la clave para evitar conflictos entre
+        // diferentes workbooks
+        String fullKey = workbook.hashCode() + "_" + key;
+        return estiloCache.computeIfAbsent(fullKey, k -> styleCreator.get());
+    }
+
+    static void limpiarCacheEstilos(Workbook workbook) {
+        // Limpiar estilos del workbook actual del caché
+        int workbookHash = workbook.hashCode();
+        estiloCache.entrySet().removeIf(entry -> entry.getKey().startsWith(workbookHash + "_"));
+    }
+
+    static void aplicarStyleFila(Row row, CellStyle style) {
+        for (int i = 0; i < row.getLastCellNum(); i++) {
+            if (row.getCell(i) != null) {
+                row.getCell(i).setCellStyle(style);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package ar.com.leo.ml;
+
+import ar.com.leo.AppLogger;
+import ar.com.leo.Util;
+import ar.com.leo.ml.model.Opciones;
+import ar.com.leo.ml.model.ProductoData;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Escribe el reporte dividido en varios archivos Excel (partes), rotando por cantidad de filas o por estado.
+ * Cada parte se escribe en streaming (SXSSF) y se cierra antes de abrir la siguiente, así la memoria usada
+ * no depende del tamaño del catálogo. Espera recibir los productos ya ordenados (el estado es la 1ra clave).
+ */
+final class ReporteParticionado implements Closeable {
+
+    // Máximo de filas de datos que admite una hoja de Excel (1.048.576 menos el encabezado)
+    static final int MAX_FILAS_EXCEL = 1_048_575;
+
+    // Filas que SXSSF mantiene en memoria antes de volcarlas al archivo temporal
+    private static final int FILAS_EN_MEMORIA = 200;
+
+    record Parte(int numero, Path archivo, String estado, int filas) {
+    }
+
+    private final Path carpeta;
+    private final String prefijo;
+    private final Opciones.Particion modo;
+    private final int filasPorParte;
+    private final boolean conNoPublicadas;
+    private final List<Parte> partes = new ArrayList<>();
+
+    private SXSSFWorkbook workbook;
+    private Sheet sheet;
+    private CellStyle centeredStyle;
+    private Path archivoActual;
+    private String estadoActual;
+    private int filas;
+
+    ReporteParticionado(Path carpeta, String prefijo, Opciones.Particion modo, int filasPorParte,
+            boolean conNoPublicadas) throws IOException {
+        this.carpeta = carpeta;
+        this.prefijo = prefijo;
+        this.modo = modo;
+        this.filasPorParte = Math.max(1, Math.min(filasPorParte, MAX_FILAS_EXCEL));
+        this.conNoPublicadas = conNoPublicadas;
+
+        Files.createDirectories(carpeta);
+        borrarPartesAnteriores();
+    }
+
+    void escribir(ProductoData p) throws IOException {
+        boolean cambioEstado = modo == Opciones.Particion.POR_ESTADO && !Objects.equals(estadoActual, p.status);
+        if (workbook == null || filas >= filasPorParte || cambioEstado) {
+            cerrarParteActual();
+            abrirParte(p.status);
+        }
+        filas++;
+        ReporteExcel.escribirFila(workbook, sheet.createRow(filas), p, centeredStyle);
+    }
+
+    List<Parte> getPartes() {
+        return partes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cerrarParteActual();
+    }
+
+    private void abrirParte(String estado) {
+        int numero = partes.size() + 1;
+        String sufijoEstado = modo == Opciones.Particion.POR_ESTADO ? "_" + nombreSeguro(estado) : "";
+        archivoActual = carpeta.resolve(String.format("%s_parte_%03d%s.xlsx", prefijo, numero, sufijoEstado));
+        estadoActual = estado;
+        filas = 0;
+
+        workbook = new SXSSFWorkbook(FILAS_EN_MEMORIA);
+        workbook.setCompressTempFiles(true);
+        sheet = workbook.createSheet("REPORTE");
+        centeredStyle = ReporteExcel.crearCenteredStyle(workbook);
+        ReporteExcel.escribirEncabezado(sheet, ReporteExcel.crearHeaderStyle(workbook), conNoPublicadas);
+        ReporteExcel.aplicarAnchosFijos(sheet, conNoPublicadas);
+    }
+
+    private void cerrarParteActual() throws IOException {
+        if (workbook == null) {
+            return;
+        }
+        // Se escribe en disco local y se mueve al destino de una vez (igual que el Excel principal)
+        Path temporal = Files.createTempFile("buscador-video-parte-", ".xlsx");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporal))) {
+                workbook.write(out);
+            }
+            Util.reemplazarArchivo(temporal, archivoActual);
+        } finally {
+            Files.deleteIfExists(temporal);
+            ReporteExcel.limpiarCacheEstilos(workbook);
+            workbook.close();
+            workbook = null;
+            sheet = null;
+        }
+        Parte parte = new Parte(partes.size() + 1, archivoActual,
+                modo == Opciones.Particion.POR_ESTADO ? estadoActual : null, filas);
+        partes.add(parte);
+        AppLogger.info("Parte " + parte.numero() + " guardada: " + archivoActual.getFileName() + " (" + filas
+                + " filas)");
+    }
+
+    /**
+     * Borra las partes de una ejecución anterior para que no queden archivos viejos sin vínculo en el índice.
+     */
+    private void borrarPartesAnteriores() throws IOException {
+        try (DirectoryStream<Path> viejas = Files.newDirectoryStream(carpeta, prefijo + "_parte_*.xlsx")) {
+            for (Path vieja : viejas) {
+                Files.deleteIfExists(vieja);
+            }
+        }
+    }
+
+    private static String nombreSeguro(String estado) {
+        if (estado == null || estado.isBlank()) {
+            return "sin_estado";
+        }
+        return estado.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+}
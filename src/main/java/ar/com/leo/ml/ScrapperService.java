@@ -1,7 +1,10 @@
 package ar.com.leo.ml;
 
 import ar.com.leo.AppLogger;
+import ar.com.leo.HttpClientes;
+import ar.com.leo.LimiteAdaptativo;
 import ar.com.leo.Util;
+import ar.com.leo.ml.model.Opciones;
 import ar.com.leo.ml.model.Producto;
 import ar.com.leo.ml.model.ProductoData;
 import javafx.concurrent.Service;
@@ -9,59 +12,92 @@ import javafx.concurrent.Task;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
 
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.openxml4j.util.ZipSecureFile;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import com.google.common.util.concurrent.RateLimiter;
 
 import java.io.*;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ScrapperService extends Service<Void> {
 
     public static final int POOL_SIZE = 10;
-    private static final ExecutorService executor = Executors.newFixedThreadPool(POOL_SIZE);
+    // Hilos del pool: cuántos verifican páginas a la vez lo decide concurrenciaPaginas, que arranca en POOL_SIZE
+    public static final int POOL_MAXIMO = 32;
+    private static final ExecutorService executor = Executors.newFixedThreadPool(POOL_MAXIMO);
+    // Etapas del proceso que corren a la vez (indexado, cookies, tokens y MLAs)
+    private static final ExecutorService etapas = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "etapa-proceso");
+        t.setDaemon(true);
+        return t;
+    });
     private static final ObjectMapper mapper = new tools.jackson.databind.ObjectMapper();
 
     private static final int TIMEOUT_SECONDS = 15;
+    // Hasta esta cantidad de SKUs objetivo conviene buscarlos uno por uno (seller_sku) en vez de recorrer todo
+    private static final int MAX_SKUS_BUSQUEDA_DIRECTA = 1000;
     private static final String BUSQUEDA = "alt=\"clip-icon\"";
-    private static final HttpClient httpClient = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(TIMEOUT_SECONDS)).build();
 
     // Sets para búsqueda más rápida de extensiones
+    // Hoja de cálculo sin filas (ver vaciarHojaReporte)
+    private static final byte[] HOJA_VACIA = ("<worksheet "
+            + "xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData/></worksheet>")
+            .getBytes(StandardCharsets.UTF_8);
     private static final Set<String> IMAGE_EXTENSIONS_SET = Set.of(".jpg", ".jpeg", ".png", ".gif", ".bmp", ".webp");
     private static final Set<String> VIDEO_EXTENSIONS_SET = Set.of(".mp4", ".avi", ".mov", ".mkv", ".wmv", ".flv",
             ".webm", ".m4v");
 
+    // Orden del reporte: estado, MLA, imágenes, video y SKU (la cantidad de imágenes se compara sin boxing)
+    static final Comparator<ProductoData> ORDEN_REPORTE = Comparator
+            .comparing((ProductoData p) -> p.status, Comparator.nullsFirst(String::compareTo))
+            .thenComparing(p -> p.mla, Comparator.nullsFirst(String::compareTo))
+            .thenComparingInt(p -> p.cantidadImagenes)
+            .thenComparing(p -> p.tieneVideo, Comparator.nullsFirst(String::compareTo))
+            .thenComparing(p -> p.sku, Comparator.nullsFirst(String::compareTo));
+
     private final File excelFile;
     private final File carpetaImagenes;
     private final File carpetaVideos;
     private final String cookieHeader;
     private final double requestsPorSegundo;
+    private final Opciones opciones;
     private RateLimiter videoRateLimiter; // Rate limiter dinámico
+    private final DisyuntorScraping disyuntor; // Pausa todas las verificaciones si ML limita (403/424) o falla (5xx)
+    // Páginas que se piden a la vez, según la latencia de las respuestas
+    private final LimiteAdaptativo concurrenciaPaginas = new LimiteAdaptativo(POOL_SIZE, 1, POOL_MAXIMO);
+    private final PedidosDuplicados duplicados; // null si no se duplican las páginas demoradas
 
     public ScrapperService(File excelFile, File carpetaImagenes, File carpetaVideos, String cookieHeader,
-            double requestsPorSegundo) {
+            double requestsPorSegundo, Opciones opciones) {
         this.excelFile = excelFile;
         this.carpetaImagenes = carpetaImagenes;
         this.carpetaVideos = carpetaVideos;
         this.cookieHeader = cookieHeader;
         this.requestsPorSegundo = requestsPorSegundo;
+        this.opciones = opciones;
         // Crear rate limiter con el valor especificado
         this.videoRateLimiter = RateLimiter.create(requestsPorSegundo);
+        this.disyuntor = new DisyuntorScraping(videoRateLimiter, requestsPorSegundo);
+        this.duplicados = opciones.duplicarDemoradas ? new PedidosDuplicados(videoRateLimiter) : null;
     }
 
     @Override
@@ -89,6 +125,8 @@ public class ScrapperService extends Service<Void> {
     }
 
     public static void shutdownExecutors() {
+        IndiceResidente.detener();
+        etapas.shutdownNow();
         executor.shutdown();
         try {
             if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -118,159 +156,481 @@ public class ScrapperService extends Service<Void> {
         validarAccesoCarpeta(carpetaImagenesPath, "imágenes");
         validarAccesoCarpeta(carpetaVideosPath, "videos");
 
-        if (cookiesValidas(cookieHeader)) {
-            AppLogger.info("Cookies válidas.");
+        // Excel
+        final Path excelPath = excelFile.toPath();
 
-            final List<ProductoData> productoList = obtenerDatos();
+        // Validar que el archivo Excel exista
+        if (!Files.exists(excelPath)) {
+            throw new IllegalArgumentException("El archivo Excel no existe: " + excelPath +
+                    ". Por favor, crea el archivo Excel antes de ejecutar el proceso.");
+        }
 
-            AppLogger.info("Verificando videos en " + productoList.size() + " productos...");
-            List<Callable<Void>> tasks = new ArrayList<>();
-            for (ProductoData productoData : productoList) {
-                tasks.add(() -> {
-                    String videoResult = this.verificarVideo(productoData.permalink, cookieHeader);
-                    // verificarVideo retorna "SI", "NO", "NO EXISTE", "ERROR: ...", etc.
-                    productoData.tieneVideo = "SI".equals(videoResult) ? "SI" : "NO";
-                    return null;
-                });
-            }
-            ejecutarBloque(tasks);
-            AppLogger.info("Verificación de videos completada.");
-
-            // Ordenamiento
-            productoList.sort(Comparator
-                    .comparing((ProductoData p) -> p.status, Comparator.nullsFirst(String::compareTo))
-                    .thenComparing(p -> p.mla, Comparator.nullsFirst(String::compareTo))
-                    .thenComparing(p -> p.cantidadImagenes)
-                    .thenComparing(p -> p.tieneVideo, Comparator.nullsFirst(String::compareTo))
-                    .thenComparing(p -> p.sku, Comparator.nullsFirst(String::compareTo)));
-
-            // Excel
-            final Path excelPath = excelFile.toPath();
-
-            // Validar que el archivo Excel exista
-            if (!Files.exists(excelPath)) {
-                throw new IllegalArgumentException("El archivo Excel no existe: " + excelPath +
-                        ". Por favor, crea el archivo Excel antes de ejecutar el proceso.");
+        // Modo dirigido: solo los SKUs de la lista maestra de la 1ra hoja
+        final Set<String> skusObjetivo = opciones.soloSkusHoja1 ? cargarSkusHoja1() : null;
+        final MapaSkuConteo skusCarpetas = skusObjetivo != null ? normalizarSkus(skusObjetivo) : null;
+        if (skusObjetivo != null) {
+            AppLogger.info("Modo dirigido: " + skusObjetivo.size() + " SKUs cargados de la hoja 1.");
+        }
+
+        // ==========================
+        // Etapas independientes: arrancan todas juntas y cada una se espera recién donde se usa su resultado.
+        // El indexado de carpetas no depende de la API, así que transcurre durante la parte de red.
+        // ==========================
+        final CompletableFuture<Boolean> cookies = iniciarEtapa(() -> cookiesValidas(cookieHeader));
+        final CompletableFuture<Carpetas> carpetas = iniciarEtapa(
+                () -> indexarCarpetas(carpetaImagenesPath, carpetaVideosPath, skusCarpetas));
+        final CompletableFuture<List<String>> itemsId = iniciarEtapa(() -> obtenerItemsId(skusObjetivo));
+        // Sin cookies válidas no se sigue: el recorrido de MLAs se corta apenas falla la verificación
+        cookies.whenComplete((validas, e) -> {
+            if (e != null || !validas) {
+                itemsId.cancel(true);
             }
+        });
+        try {
+            procesar(cookies, carpetas, itemsId, skusCarpetas, carpetaImagenesPath);
+        } finally {
+            // Si algo falló, las etapas que siguen en curso se cortan: no deben pisarse con la próxima ejecución
+            cookies.cancel(true);
+            carpetas.cancel(true);
+            itemsId.cancel(true);
+        }
 
-            AppLogger.info("Abriendo archivo Excel...");
+        String fechaHoraFin = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss"));
+        AppLogger.info("[" + fechaHoraFin + "] Proceso finalizado exitosamente.");
+    }
 
-            // Configurar límite de detección de Zip bomb para archivos con alta compresión
-            ZipSecureFile.setMinInflateRatio(0.001);
+    /**
+     * Espera las etapas, obtiene y verifica los productos, y escribe el reporte.
+     */
+    private void procesar(CompletableFuture<Boolean> cookies, CompletableFuture<Carpetas> carpetas,
+            CompletableFuture<List<String>> itemsId, MapaSkuConteo skusCarpetas, String carpetaImagenesPath)
+            throws Exception {
+        // Las cookies hacen falta para verificar los videos: se confirman antes de pedir los productos
+        if (!esperar(cookies)) {
+            throw new IllegalArgumentException(
+                    "Cookies inválidas. Por favor verifica que estés logueado en MercadoLibre.");
+        }
+        AppLogger.info("Cookies válidas.");
 
-            try (FileInputStream fis = new FileInputStream(excelFile);
-                    Workbook workbook = new XSSFWorkbook(fis)) {
+        final List<String> productos = esperar(itemsId);
+        AppLogger.info("Total de Productos encontrados: " + productos.size());
 
-                // Verificar que tenga al menos 2 hojas
-                if (workbook.getNumberOfSheets() < 2) {
-                    throw new IllegalArgumentException("El archivo Excel debe tener al menos 2 hojas. " +
-                            "Hojas encontradas: " + workbook.getNumberOfSheets());
+        try (ExportadorColumnar exportador = crearExportador();
+                ComparadorImagenes comparador = opciones.compararPublicadas ? ComparadorImagenes.cargar() : null;
+                MapaRedirecciones redirecciones = MapaRedirecciones.cargar();
+                EspejoImagenes espejo = opciones.descargarPublicadas
+                        ? new EspejoImagenes(Paths.get(carpetaImagenesPath).normalize())
+                        : null) {
+            if (opciones.memoriaAcotada) {
+                // Memoria acotada: cada fila se verifica y se completa apenas se obtiene (hacen falta los
+                // conteos de carpetas desde la primera), y se acumula en el ordenamiento externo, que vuelca
+                // tandas a disco al superar el presupuesto
+                final Carpetas conteos = esperarCarpetas(carpetas);
+                long presupuesto = opciones.presupuestoMemoriaMb * 1024L * 1024L;
+                try (OrdenamientoExterno orden = new OrdenamientoExterno(ORDEN_REPORTE, presupuesto)) {
+                    AppLogger.info("Modo memoria acotada (" + opciones.presupuestoMemoriaMb + " MB). "
+                            + "Obteniendo y verificando productos...");
+                    obtenerDatos(productos, skusCarpetas, productoData -> {
+                        try {
+                            finalizarFila(productoData, conteos, redirecciones, comparador, espejo, exportador);
+                            orden.agregar(productoData);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    AppLogger.info("Verificación de videos completada. Total de filas: " + orden.size()
+                            + ". Páginas a la vez al terminar: " + concurrenciaPaginas.limite() + ".");
+                    informarDuplicados();
+                    escribirReporte(orden.iterador(), orden.size(), true);
                 }
+            } else {
+                final List<ProductoData> productoList = Collections.synchronizedList(new ArrayList<>());
+                obtenerDatos(productos, skusCarpetas, productoList::add);
+                AppLogger.info("Total de productos y variaciones: " + productoList.size());
+
+                // Los conteos de carpetas se usan recién al completar cada fila
+                final Carpetas conteos = esperarCarpetas(carpetas);
+                AppLogger.info("Verificando videos en " + productoList.size() + " productos...");
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (ProductoData productoData : productoList) {
+                    tasks.add(() -> {
+                        finalizarFila(productoData, conteos, redirecciones, comparador, espejo, exportador);
+                        return null;
+                    });
+                }
+                ejecutarBloque(tasks);
+                AppLogger.info("Verificación de videos completada. Páginas a la vez al terminar: "
+                        + concurrenciaPaginas.limite() + ".");
+                informarDuplicados();
+
+                // Ordenamiento
+                productoList.sort(ORDEN_REPORTE);
+                escribirReporte(productoList.iterator(), productoList.size(), false);
+            }
+        }
+    }
 
-                Sheet scanSheet = workbook.getSheetAt(1); // 2da hoja
-
-                // ==========================
-                // Limpiar datos existentes (excepto encabezado)
-                // ==========================
-                int lastRowNum = scanSheet.getLastRowNum();
-                if (lastRowNum > 0) {
-                    AppLogger.info("Limpiando " + lastRowNum + " filas existentes...");
-                    // Eliminar filas desde la última hasta la primera (excepto fila 0 que es el
-                    // encabezado)
-                    // Usar removeRow en lugar de shiftRows para evitar problemas con muchas filas
-                    for (int i = lastRowNum; i > 0; i--) {
-                        Row row = scanSheet.getRow(i);
-                        if (row != null) {
-                            scanSheet.removeRow(row);
-                        }
+    /**
+     * Conteos de las carpetas de imágenes y videos.
+     */
+    private record Carpetas(IndexadorCarpetas.Resultado imagenes, IndexadorCarpetas.Resultado videos) {
+    }
+
+    /**
+     * Indexa las carpetas de imágenes y videos (o lee los conteos del índice residente).
+     */
+    private Carpetas indexarCarpetas(String carpetaImagenesPath, String carpetaVideosPath,
+            MapaSkuConteo skusCarpetas) throws IOException {
+        AppLogger.info("Buscando archivos en carpetas...");
+        final IndexadorCarpetas.Resultado cacheImagenes;
+        final IndexadorCarpetas.Resultado cacheVideos;
+        if (opciones.indiceResidente) {
+            // Conteos del índice en memoria (solo se reindexa lo que cambió desde la última vez)
+            IndiceResidente indice = IndiceResidente.obtener(Paths.get(carpetaImagenesPath).normalize(),
+                    IMAGE_EXTENSIONS_SET, Paths.get(carpetaVideosPath).normalize(), VIDEO_EXTENSIONS_SET,
+                    opciones.verificarResolucion, opciones.verificarClips, opciones.descartarDuplicados,
+                    opciones.compararPublicadas);
+            cacheImagenes = indice.imagenes(skusCarpetas);
+            cacheVideos = indice.videos(skusCarpetas);
+        } else {
+            IndiceResidente.detener();
+            AppLogger.info("Indexando archivos de imágenes...");
+            cacheImagenes = indexarArchivosPorSku(carpetaImagenesPath, IMAGE_EXTENSIONS_SET, skusCarpetas,
+                    opciones.verificarResolucion, opciones.descartarDuplicados, opciones.compararPublicadas);
+            AppLogger.info("Indexando archivos de videos...");
+            cacheVideos = indexarVideosPorSku(carpetaVideosPath, skusCarpetas, opciones.verificarClips);
+        }
+        AppLogger.info("Búsqueda indexada completada.");
+        return new Carpetas(cacheImagenes, cacheVideos);
+    }
+
+    private static Carpetas esperarCarpetas(CompletableFuture<Carpetas> carpetas) throws Exception {
+        if (!carpetas.isDone()) {
+            AppLogger.info("Esperando el indexado de carpetas...");
+        }
+        Carpetas conteos = esperar(carpetas);
+        if (conteos.imagenes().incompleto() || conteos.videos().incompleto()) {
+            AppLogger.warn("Hubo carpetas que no respondieron: las conclusiones afectadas se marcan como "
+                    + "\"índice incompleto\" en el reporte.");
+        }
+        return conteos;
+    }
+
+    /**
+     * Ejecuta un paso en su propio hilo (no en el pool de tareas: los pasos a su vez reparten trabajo en él).
+     * Cancelar el future interrumpe el hilo del paso.
+     */
+    private static <T> CompletableFuture<T> iniciarEtapa(Callable<T> paso) {
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        Future<?> tarea = etapas.submit(() -> {
+            try {
+                resultado.complete(paso.call());
+            } catch (Throwable e) {
+                resultado.completeExceptionally(e);
+            }
+        });
+        resultado.whenComplete((r, e) -> {
+            if (resultado.isCancelled()) {
+                tarea.cancel(true);
+            }
+        });
+        return resultado;
+    }
+
+    /**
+     * Espera el resultado de una etapa y relanza su excepción original.
+     */
+    private static <T> T esperar(CompletableFuture<T> etapa) throws Exception {
+        try {
+            return etapa.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Escribe las filas (ya ordenadas) en la 2da hoja del Excel o en el reporte particionado, y guarda.
+     * Con streaming las filas no se acumulan en memoria: se vuelcan a disco a medida que se escriben.
+     */
+    private void escribirReporte(Iterator<ProductoData> filas, int totalFilas, boolean streaming) throws Exception {
+        final Path excelPath = excelFile.toPath();
+
+        // Si no entra en una hoja, particionar automáticamente
+        Opciones.Particion particion = opciones.particion;
+        if (particion == Opciones.Particion.NINGUNA && totalFilas > ReporteParticionado.MAX_FILAS_EXCEL) {
+            AppLogger.warn(totalFilas + " filas superan el límite de una hoja de Excel. "
+                    + "Se generará el reporte particionado por filas.");
+            particion = Opciones.Particion.POR_FILAS;
+        }
+
+        AppLogger.info("Abriendo archivo Excel...");
+
+        // Configurar límite de detección de Zip bomb para archivos con alta compresión
+        ZipSecureFile.setMinInflateRatio(0.001);
+
+        // Abrir el paquete directamente desde el archivo: POI lee las partes del zip a demanda en lugar de
+        // copiar todo el contenido a memoria como con un FileInputStream.
+        // Se abre en READ_WRITE solo porque POI no permite escribir un workbook de solo lectura; al final se
+        // hace revert() para que nunca escriba sobre el original (se guarda aparte y se reemplaza).
+        final OPCPackage pkg = OPCPackage.open(excelFile, PackageAccess.READ_WRITE);
+        Path temporal = null;
+        try {
+            if (streaming) {
+                // Memoria acotada: la hoja anterior (que puede tener cientos de miles de filas) no se carga
+                vaciarHojaReporte(pkg);
+            }
+            final XSSFWorkbook workbook = new XSSFWorkbook(pkg);
+
+            // Verificar que tenga al menos 2 hojas
+            if (workbook.getNumberOfSheets() < 2) {
+                throw new IllegalArgumentException("El archivo Excel debe tener al menos 2 hojas. " +
+                        "Hojas encontradas: " + workbook.getNumberOfSheets());
+            }
+
+            Sheet scanSheet = workbook.getSheetAt(1); // 2da hoja
+
+            // En streaming (SXSSF sobre este workbook) la hoja se reescribe completa, encabezado incluido
+            final boolean hojaEnStreaming = streaming && particion == Opciones.Particion.NINGUNA;
+
+            // ==========================
+            // Limpiar datos existentes (excepto encabezado). En streaming la hoja ya llega vacía
+            // ==========================
+            int lastRowNum = scanSheet.getLastRowNum();
+            int primeraFilaABorrar = hojaEnStreaming ? 0 : 1;
+            if (lastRowNum >= primeraFilaABorrar) {
+                AppLogger.info("Limpiando " + lastRowNum + " filas existentes...");
+                // Eliminar filas desde la última hasta la primera (excepto fila 0 que es el
+                // encabezado)
+                // Usar removeRow en lugar de shiftRows para evitar problemas con muchas filas
+                for (int i = lastRowNum; i >= primeraFilaABorrar; i--) {
+                    Row row = scanSheet.getRow(i);
+                    if (row != null) {
+                        scanSheet.removeRow(row);
                     }
                 }
+            }
 
-                // Estilos (se reutilizarán más adelante)
-                CellStyle headerStyle = crearHeaderStyle(workbook);
-                CellStyle centeredStyle = crearCenteredStyle(workbook);
+            // Workbook donde se escriben las filas: el mismo, o un SXSSF que vuelca las filas a disco
+            final SXSSFWorkbook workbookStreaming = hojaEnStreaming ? new SXSSFWorkbook(workbook, 200) : null;
+            final Workbook destino = hojaEnStreaming ? workbookStreaming : workbook;
+            if (hojaEnStreaming) {
+                scanSheet = workbookStreaming.getSheetAt(1);
+            }
 
-                // ==========================
-                // Encabezados
-                // ==========================
-                Row header = scanSheet.getRow(0);
-                if (header == null) {
-                    header = scanSheet.createRow(0);
-                }
-                header.createCell(0).setCellValue("ESTADO");
-                header.createCell(1).setCellValue("MLA");
-                header.createCell(2).setCellValue("IMAGENES");
-                header.createCell(3).setCellValue("VIDEOS");
-                header.createCell(4).setCellValue("SKU");
-                header.createCell(5).setCellValue("URL");
-                header.createCell(6).setCellValue("TIPO PUBLICACION");
-                header.createCell(7).setCellValue("IMAGENES EN CARPETA");
-                header.createCell(8).setCellValue("VIDEOS EN CARPETA");
-                header.createCell(9).setCellValue("CONCLUSION IMAGENES");
-                header.createCell(10).setCellValue("CONCLUSION VIDEOS");
-
-                aplicarStyleFila(header, headerStyle);
-
-                // ==========================
-                // Cargar productos y variaciones
-                // ==========================
+            // Estilos (se reutilizarán más adelante)
+            CellStyle headerStyle = ReporteExcel.crearHeaderStyle(destino);
+            CellStyle centeredStyle = ReporteExcel.crearCenteredStyle(destino);
+
+            // ==========================
+            // Encabezados
+            // ==========================
+            ReporteExcel.escribirEncabezado(scanSheet, headerStyle, opciones.compararPublicadas);
+
+            // ==========================
+            // Cargar productos y variaciones
+            // ==========================
+            if (particion == Opciones.Particion.NINGUNA) {
                 int rowNum = 1;
-                for (ProductoData p : productoList) {
-                    Row row = scanSheet.createRow(rowNum++);
-
-                    // Formatear MLA: si es variación, mostrar el MLAU
-                    String mlaDisplay = p.esVariacion
-                            ? (p.mla + " (VAR: " + p.userProductId + ")")
-                            : p.mla;
-
-                    row.createCell(0).setCellValue(p.status);
-                    row.createCell(1).setCellValue(mlaDisplay);
-                    row.createCell(2).setCellValue(p.cantidadImagenes);
-                    row.createCell(3).setCellValue(p.tieneVideo);
-                    row.createCell(4).setCellValue(p.sku);
-                    row.createCell(5).setCellValue(p.permalink);
-                    row.createCell(6).setCellValue(p.tipoPublicacion);
-
-                    aplicarStyleFila(row, centeredStyle);
+                while (filas.hasNext()) {
+                    ReporteExcel.escribirFila(destino, scanSheet.createRow(rowNum++), filas.next(), centeredStyle);
                 }
 
-                // ==========================
-                // Buscar archivos en carpetas y actualizar Excel (sin guardar aún)
-                // ==========================
-                AppLogger.info("Buscando archivos en carpetas...");
-                actualizarExcelConArchivos(workbook, scanSheet, carpetaImagenesPath, carpetaVideosPath, headerStyle,
-                        centeredStyle);
-
-                // ==========================
-                // Guardar archivo una sola vez al final
-                // ==========================
-                AppLogger.info("Guardando archivo Excel...");
-                try (FileOutputStream fos = new FileOutputStream(excelFile)) {
-                    workbook.write(fos);
-                    fos.flush();
-                } catch (Exception ex) {
-                    AppLogger.error("Error al guardar Excel: " + ex.getMessage(), ex);
-                    throw ex;
-                } finally {
-                    // Limpiar caché de estilos después de usar el workbook
-                    limpiarCacheEstilos(workbook);
+                // Ajustar ancho de columnas
+                if (hojaEnStreaming) {
+                    ReporteExcel.aplicarAnchosFijos(scanSheet, opciones.compararPublicadas);
+                } else {
+                    for (int i = 0; i < ReporteExcel.encabezados(opciones.compararPublicadas).length; i++) {
+                        scanSheet.autoSizeColumn(i);
+                    }
                 }
-                String fechaHoraFin = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss"));
-                AppLogger.info("[" + fechaHoraFin + "] Proceso finalizado exitosamente.");
-            } catch (Exception e) {
-                throw e;
+
+                // Quitar el índice de partes de una ejecución particionada anterior
+                int indicePartes = workbook.getSheetIndex(ReporteExcel.HOJA_INDICE_PARTES);
+                if (indicePartes >= 0) {
+                    workbook.removeSheetAt(indicePartes);
+                }
+            } else {
+                List<ReporteParticionado.Parte> partes = escribirReporteParticionado(filas, particion);
+                ReporteExcel.escribirIndicePartes(workbook, partes, excelPath.toAbsolutePath().getParent(),
+                        headerStyle, centeredStyle);
+                AppLogger.info("Reporte dividido en " + partes.size() + " partes. Ver hoja "
+                        + ReporteExcel.HOJA_INDICE_PARTES + ".");
+            }
+
+            // ==========================
+            // Guardar archivo una sola vez al final
+            // ==========================
+            AppLogger.info("Guardando archivo Excel...");
+            temporal = Files.createTempFile("buscador-video-", ".xlsx");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporal))) {
+                destino.write(out);
+            } catch (Exception ex) {
+                AppLogger.error("Error al guardar Excel: " + ex.getMessage(), ex);
+                throw ex;
+            } finally {
+                // Limpiar caché de estilos después de usar el workbook
+                ReporteExcel.limpiarCacheEstilos(destino);
+                if (workbookStreaming != null) {
+                    borrarTemporales(workbookStreaming);
+                }
+            }
+        } catch (Exception e) {
+            if (temporal != null) {
+                Files.deleteIfExists(temporal);
+            }
+            throw e;
+        } finally {
+            // Libera el archivo original sin escribir sobre él
+            pkg.revert();
+        }
+
+        // Reemplazar el original de una sola vez (el Excel nunca queda a medio escribir)
+        Util.reemplazarArchivo(temporal, excelPath);
+    }
+
+    /**
+     * Reemplaza la 2da hoja por una vacía en el paquete abierto (no en el archivo: al final se hace revert()), antes
+     * de crear el XSSFWorkbook, que carga todas las hojas completas. Si no hay 2da hoja no hace nada (lo informa la
+     * verificación de hojas).
+     */
+    private static void vaciarHojaReporte(OPCPackage pkg) throws Exception {
+        XSSFReader.SheetIterator hojas = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+        for (int i = 0; hojas.hasNext(); i++) {
+            hojas.next().close();
+            if (i == 1) {
+                // POI cambia la parte del zip por una en memoria con el mismo nombre y relaciones
+                try (OutputStream out = hojas.getSheetPart().getOutputStream()) {
+                    out.write(HOJA_VACIA);
+                }
+                return;
             }
-        } else {
-            throw new IllegalArgumentException(
-                    "Cookies inválidas. Por favor verifica que estés logueado en MercadoLibre.");
         }
     }
 
-    private String verificarVideo(String url, String cookieHeader) {
-        return verificarVideo(url, cookieHeader, 0);
+    /**
+     * Borra los temporales de las filas en streaming sin cerrar el workbook.
+     */
+    // close() borra los temporales pero además cierra el paquete, y en READ_WRITE escribiría sobre el original
+    @SuppressWarnings("deprecation")
+    private static void borrarTemporales(SXSSFWorkbook workbookStreaming) {
+        workbookStreaming.dispose();
     }
 
-    private String verificarVideo(String url, String cookieHeader, int intentos) {
+    /**
+     * Crea el exportador CSV/JSONL junto al Excel, o null si no se pidió ninguna exportación.
+     */
+    private ExportadorColumnar crearExportador() throws IOException {
+        if (!opciones.exportarCsv && !opciones.exportarJsonl) {
+            return null;
+        }
+        Path base = excelFile.toPath().toAbsolutePath().getParent().resolve(nombreBaseExcel());
+        return new ExportadorColumnar(base, opciones.exportarCsv, opciones.exportarJsonl,
+                opciones.comprimirExportacion, opciones.compararPublicadas);
+    }
+
+    private String nombreBaseExcel() {
+        String nombreExcel = excelFile.getName();
+        int punto = nombreExcel.lastIndexOf('.');
+        return punto > 0 ? nombreExcel.substring(0, punto) : nombreExcel;
+    }
+
+    /**
+     * Escribe el reporte en archivos separados dentro de la carpeta "{nombre del Excel}_partes", junto al Excel.
+     */
+    private List<ReporteParticionado.Parte> escribirReporteParticionado(Iterator<ProductoData> filas,
+            Opciones.Particion particion) throws IOException {
+        String prefijo = nombreBaseExcel();
+        Path carpetaPartes = excelFile.toPath().toAbsolutePath().getParent().resolve(prefijo + "_partes");
+
+        AppLogger.info("Escribiendo reporte particionado en " + carpetaPartes + "...");
+        final ReporteParticionado reporte = new ReporteParticionado(carpetaPartes, prefijo, particion,
+                opciones.filasPorParte, opciones.compararPublicadas);
+        try (reporte) {
+            while (filas.hasNext()) {
+                reporte.escribir(filas.next());
+            }
+        }
+        // Al cerrarse se guarda la última parte, así que la lista queda completa recién acá
+        return reporte.getPartes();
+    }
+
+    /**
+     * Verifica el video de la publicación, completa los datos de carpetas, baja las imágenes publicadas si la
+     * carpeta del SKU está vacía, compara sus imágenes con las publicadas y la exporta (lo que corresponda).
+     */
+    private void finalizarFila(ProductoData productoData, Carpetas carpetas, MapaRedirecciones redirecciones,
+            ComparadorImagenes comparador, EspejoImagenes espejo, ExportadorColumnar exportador) throws IOException {
+        String videoResult = this.verificarVideo(productoData.permalink, cookieHeader, redirecciones);
+        if (opciones.actualizarUrls && productoData.permalink != null) {
+            productoData.permalink = redirecciones.resolver(productoData.permalink);
+        }
+        // verificarVideo retorna "SI", "NO", "NO EXISTE", "ERROR: ...", etc.
+        productoData.tieneVideo = "SI".equals(videoResult) ? "SI" : "NO";
+
+        // Buscar archivos en carpetas y generar conclusiones
+        completarConArchivos(productoData, carpetas.imagenes(), carpetas.videos());
+        long sku = SkuCodec.codificarSku(productoData.sku);
+        if (espejo != null && productoData.conclusionImagenes != null && productoData.imagenes != null
+                && !productoData.imagenes.isEmpty() && carpetas.imagenes().conteos().get(sku) == 0
+                && !carpetas.imagenes().afecta(sku)) {
+            // Carpeta vacía (sin contar la verificación de resolución): las bajadas pasan a ser sus imágenes
+            int bajadas = espejo.descargar(productoData.sku, productoData.imagenes);
+            if (bajadas > 0) {
+                productoData.imagenesCarpeta = bajadas;
+                productoData.conclusionImagenes = generarConclusionImagenes(productoData.cantidadImagenes, bajadas);
+            }
+        }
+        if (comparador != null && productoData.conclusionImagenes != null) {
+            productoData.imagenesNoPublicadas = comparador.noPublicadas(carpetas.imagenes().archivosDe(sku),
+                    productoData.imagenes);
+        }
+        productoData.imagenes = null;
+        if (exportador != null) {
+            exportador.escribir(productoData);
+        }
+    }
+
+    private void informarDuplicados() {
+        if (duplicados != null) {
+            AppLogger.info("Páginas demoradas pedidas dos veces: " + duplicados.duplicados()
+                    + " (el segundo pedido respondió primero en " + duplicados.ganados() + ").");
+        }
+    }
+
+    /**
+     * Si ya se sabe que el permalink redirige, pide directo la URL nueva; si esa ya no existe, olvida la
+     * redirección y vuelve al permalink.
+     */
+    private String verificarVideo(String url, String cookieHeader, MapaRedirecciones redirecciones) {
+        String conocida = redirecciones.resolver(url);
+        if (!conocida.equals(url)) {
+            redirecciones.usada();
+            String resultado = verificarVideo(conocida, url, cookieHeader, redirecciones, 0);
+            if (!"NO EXISTE".equals(resultado)) {
+                return resultado;
+            }
+            redirecciones.olvidar(url);
+        }
+        return verificarVideo(url, url, cookieHeader, redirecciones, 0);
+    }
+
+    /**
+     * Respuestas de MercadoLibre limitando (403/424) o sin dar abasto (5xx): no cuentan para la concurrencia y el
+     * disyuntor decide cuándo reintentar.
+     */
+    private static boolean limitada(int status) {
+        return status == 403 || status == 424 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Pide la página url (la del permalink o una redirección conocida) siguiendo las redirecciones; si termina en
+     * otra URL, la registra como destino del permalink.
+     */
+    private String verificarVideo(String url, String permalink, String cookieHeader,
+            MapaRedirecciones redirecciones, int intentos) {
         // Límite de recursión para evitar StackOverflowError
         if (intentos >= 5) {
             AppLogger.warn("Límite de reintentos alcanzado para: " + url);
@@ -278,10 +638,14 @@ public class ScrapperService extends Service<Void> {
         }
 
         int status = 0;
+        DisyuntorScraping.Turno turno = null;
+        boolean informado = false;
         try {
-            // Aplicar rate limiting para evitar bloqueos
-            videoRateLimiter.acquire();
-
+            // Con el circuito abierto espera acá, sin enviar nada
+            turno = disyuntor.esperarTurno();
+            if (turno == DisyuntorScraping.Turno.RECHAZADO) {
+                return "ERROR: MercadoLibre sigue limitando los requests";
+            }
             final HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(url))
                     .timeout(Duration.ofSeconds(TIMEOUT_SECONDS))
@@ -289,17 +653,44 @@ public class ScrapperService extends Service<Void> {
                     .header("Accept",
                             "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7")
                     .header("Accept-Language", "es-AR,es;q=0.9,en;q=0.8")
+                    .header("Accept-Encoding", "gzip")
                     .header("Referer", "https://www.mercadolibre.com.ar/")
                     .header("Cookie", cookieHeader) // 👈 cookie
                     .GET()
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response;
+            long inicio = concurrenciaPaginas.adquirir();
+            try {
+                // Aplicar rate limiting para evitar bloqueos
+                videoRateLimiter.acquire();
+                response = duplicados != null ? duplicados.enviar(request)
+                        : HttpClientes.conRedirecciones().send(request, HttpClientes.ofString());
+            } catch (Exception e) {
+                concurrenciaPaginas.liberar(inicio, true);
+                throw e;
+            }
             final String html = response.body();
             status = response.statusCode();
+            concurrenciaPaginas.liberar(inicio, limitada(status));
+            disyuntor.resultado(turno, limitada(status));
+            informado = true;
 
             switch (status) {
                 case 200:
+                    // El cliente sigue las redirecciones: uri() es la URL donde terminó
+                    String destino = response.uri().toString();
+                    if (!destino.equals(url)) {
+                        if (MapaRedirecciones.esMudanza(response)) {
+                            redirecciones.registrar(permalink, destino);
+                        } else if (!MapaRedirecciones.esPublicacion(response.uri(), request.uri())) {
+                            // Login, verificación de cuenta, captcha: la página no dice nada del video
+                            AppLogger.warn("URL: " + url + " redirigió a " + destino
+                                    + ", que no es una publicación.");
+                            return "ERROR: Redirigida a " + destino;
+                        }
+                        // Redirección temporal a otra publicación: se verifica, pero no se guarda
+                    }
                     if (html.contains(BUSQUEDA)) {
                         return "SI";
                     } else {
@@ -310,37 +701,29 @@ public class ScrapperService extends Service<Void> {
                 case 303:
                 case 307:
                 case 308:
-                    if (html.startsWith("Moved Permanently") || html.contains("Redirecting to ")) {
-                        int idx = html.indexOf("Redirecting to ");
-                        if (idx != -1) {
-                            String newUrl = html.substring(idx + "Redirecting to ".length()).replace("</p>", "").trim();
-                            // Reintentar con la nueva URL (si cambió)
-                            if (!newUrl.equals(request.uri().toString())) {
-                                AppLogger.info("URL vieja: " + url + " - URL actualizada: " + newUrl);
-                                return verificarVideo(newUrl, cookieHeader, intentos + 1);
-                            }
-                        }
-                    }
+                    // Redirección que el cliente no siguió (sin Location, demasiados saltos o a http)
                     break;
                 case 404:
                 case 410:
                     return "NO EXISTE";
-                case 403:
-                case 424:
-                    AppLogger.info("Too many requests.");
-                    Thread.sleep(60000);
-                    return verificarVideo(url, cookieHeader, intentos + 1);
                 case 500:
                 case 502:
                 case 503:
                 case 504:
-                    AppLogger.info("Internal server error.");
-                    Thread.sleep(5000);
-                    return verificarVideo(url, cookieHeader, intentos + 1);
+                    AppLogger.info("Error del servidor (" + status + ") en: " + url);
+                    // Como 403/424: ya se informó al disyuntor, que decide cuándo reintentar
+                    return verificarVideo(url, permalink, cookieHeader, redirecciones, intentos + 1);
+                case 403:
+                case 424:
+                    // El disyuntor decide cuándo reintentar (el siguiente esperarTurno espera si está abierto)
+                    return verificarVideo(url, permalink, cookieHeader, redirecciones, intentos + 1);
                 default:
                     return "STATUS: " + status;
             }
         } catch (Exception e) {
+            if (!informado && turno != null) {
+                disyuntor.liberar(turno);
+            }
             AppLogger.error("Error en url: " + url + " - status: " + status + " -> " + e.getMessage(), e);
             return "ERROR: " + e.getMessage();
         }
@@ -348,19 +731,29 @@ public class ScrapperService extends Service<Void> {
         return "ERROR: " + status;
     }
 
-    public static List<ProductoData> obtenerDatos() throws Exception, InterruptedException, IOException {
-
+    /**
+     * Inicializa los tokens de la API y obtiene los MLAs a recorrer (todos, o los de los SKUs objetivo).
+     */
+    public static List<String> obtenerItemsId(Set<String> skusObjetivo) throws Exception {
         MercadoLibreAPI.inicializar();
 
         final String userId = MercadoLibreAPI.getUserId();
         AppLogger.info("User ID: " + userId);
 
+        if (skusObjetivo != null && skusObjetivo.size() <= MAX_SKUS_BUSQUEDA_DIRECTA) {
+            return obtenerItemsIdPorSkus(userId, skusObjetivo);
+        }
         AppLogger.info("Obteniendo MLAs de todos los productos...");
-        final List<String> productos = MercadoLibreAPI.obtenerTodosLosItemsId(userId);
-        AppLogger.info("Total de Productos encontrados: " + productos.size());
-
-        final List<ProductoData> productoList = Collections.synchronizedList(new ArrayList<>());
+        return MercadoLibreAPI.obtenerTodosLosItemsId(userId);
+    }
 
+    /**
+     * Obtiene los productos y variaciones de cada MLA.
+     * Si skusNormalizados no es null, solo se entregan los que tienen alguno de esos SKUs (ver cargarSkusHoja1).
+     * Cada fila se entrega a destino apenas se obtiene, desde los hilos del pool (destino debe ser thread-safe).
+     */
+    public static void obtenerDatos(List<String> productos, MapaSkuConteo skusNormalizados,
+            Consumer<ProductoData> destino) throws Exception {
         AppLogger.info("Obteniendo datos de todos los productos...");
         List<Callable<Void>> tasks = new ArrayList<>();
         for (String mla : productos) {
@@ -387,10 +780,10 @@ public class ScrapperService extends Service<Void> {
                                 if (variacionNode != null) {
                                     // Buscar el atributo SELLER_SKU en attributes
                                     String sku = extraerSkuDeVariacion(variacionNode);
-                                    if (sku != null && !sku.isEmpty()) {
+                                    if (sku != null && !sku.isEmpty() && esSkuObjetivo(sku, skusNormalizados)) {
                                         AppLogger.info("ML - Variación " + userProductId + " - SKU: " + sku);
                                         // Agregar la variación como ProductoData
-                                        productoList.add(new ProductoData(producto, userProductId, sku));
+                                        destino.accept(new ProductoData(producto, userProductId, sku));
                                     }
                                 }
                             }
@@ -398,16 +791,112 @@ public class ScrapperService extends Service<Void> {
                     } else {
                         // Agregar el producto principal (sin variaciones)
                         String sku = getSku(producto.attributes);
-                        productoList.add(new ProductoData(producto, sku));
+                        if (esSkuObjetivo(sku, skusNormalizados)) {
+                            destino.accept(new ProductoData(producto, sku));
+                        }
                     }
                 }
                 return null;
             });
         }
         ejecutarBloque(tasks);
+        AppLogger.info("Requests a la API: " + MercadoLibreAPI.getsEnviados() + " enviados, "
+                + MercadoLibreAPI.getsCompartidos() + " resueltos con uno idéntico en curso o reciente. "
+                + "Requests a la vez al terminar: " + MercadoLibreAPI.concurrencia() + ".");
+    }
+
+    /**
+     * Busca en la API solo los items de cada SKU (seller_sku) en lugar de recorrer todo el catálogo.
+     */
+    private static List<String> obtenerItemsIdPorSkus(String userId, Set<String> skus) throws Exception {
+        AppLogger.info("Buscando MLAs de " + skus.size() + " SKUs de la hoja 1...");
+        final Set<String> items = ConcurrentHashMap.newKeySet();
+        final Set<String> sinResultados = ConcurrentHashMap.newKeySet();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String sku : skus) {
+            tasks.add(() -> {
+                List<String> encontrados = MercadoLibreAPI.obtenerItemsIdPorSku(userId, sku);
+                if (encontrados.isEmpty()) {
+                    sinResultados.add(sku);
+                }
+                items.addAll(encontrados);
+                return null;
+            });
+        }
+        ejecutarBloque(tasks);
+
+        if (!sinResultados.isEmpty()) {
+            AppLogger.warn(sinResultados.size() + " SKUs de la hoja 1 no tienen publicaciones con ese SELLER_SKU "
+                    + "exacto: " + sinResultados);
+        }
+        return new ArrayList<>(items);
+    }
+
+    private static boolean esSkuObjetivo(String sku, MapaSkuConteo skusNormalizados) {
+        if (skusNormalizados == null) {
+            return true;
+        }
+        return skusNormalizados.contiene(SkuCodec.codificarSku(sku));
+    }
+
+    /**
+     * Conjunto de SKUs normalizados (codificados con SkuCodec); los SKUs muy cortos se descartan.
+     */
+    private static MapaSkuConteo normalizarSkus(Set<String> skus) {
+        MapaSkuConteo normalizados = new MapaSkuConteo(skus.size());
+        for (String sku : skus) {
+            normalizados.agregar(SkuCodec.codificarSku(sku));
+        }
+        return normalizados;
+    }
+
+    /**
+     * Lee la lista maestra de SKUs de la 1ra hoja: la columna con encabezado "SKU" o, si no hay, la
+     * primera columna. El archivo se abre en solo lectura.
+     */
+    private Set<String> cargarSkusHoja1() throws Exception {
+        final Set<String> skus = new LinkedHashSet<>();
+        final OPCPackage pkg = OPCPackage.open(excelFile, PackageAccess.READ);
+        try {
+            XSSFWorkbook workbook = new XSSFWorkbook(pkg);
+            Sheet hoja = workbook.getSheetAt(0);
+
+            int colSku = 0;
+            int primeraFila = 0;
+            Row header = hoja.getRow(hoja.getFirstRowNum());
+            if (header != null) {
+                for (Cell cell : header) {
+                    if ("SKU".equalsIgnoreCase(Util.getCellValue(cell))) {
+                        colSku = cell.getColumnIndex();
+                        primeraFila = header.getRowNum() + 1;
+                        break;
+                    }
+                }
+            }
+
+            for (int i = primeraFila; i <= hoja.getLastRowNum(); i++) {
+                Row row = hoja.getRow(i);
+                if (row == null) {
+                    continue;
+                }
+                try {
+                    String sku = Util.getCellValue(row.getCell(colSku));
+                    if (SkuCodec.codificarSku(sku) != SkuCodec.INVALIDO) {
+                        skus.add(sku);
+                    }
+                } catch (Exception e) {
+                    AppLogger.warn("Error al leer SKU en fila " + (i + 1) + " de la hoja 1: " + e.getMessage());
+                }
+            }
+        } finally {
+            pkg.revert();
+        }
 
-        AppLogger.info("Total de productos y variaciones: " + productoList.size());
-        return productoList;
+        if (skus.isEmpty()) {
+            throw new IllegalArgumentException("La 1ra hoja del Excel no tiene SKUs válidos (mínimo 7 caracteres).");
+        }
+        return skus;
     }
 
     /**
@@ -423,13 +912,9 @@ public class ScrapperService extends Service<Void> {
                     if ("SELLER_SKU".equals(id)) {
                         JsonNode nameNode = attribute.path("name");
                         String name = nameNode.isNull() ? "" : nameNode.asString();
-                        if (name != null && name.length() >= 7) {
-                            // Obtener los primeros 7 dígitos
-                            String primeros7Digitos = name.substring(0, 7);
-                            // Verificar que sean dígitos
-                            if (primeros7Digitos.matches("\\d{7}")) {
-                                return primeros7Digitos;
-                            }
+                        // Los primeros 7 caracteres tienen que ser dígitos
+                        if (SkuCodec.empiezaCon7Digitos(name)) {
+                            return name.substring(0, SkuCodec.LARGO);
                         }
                     }
                 }
@@ -442,18 +927,16 @@ public class ScrapperService extends Service<Void> {
 
     public static boolean cookiesValidas(String cookieHeader) {
         try {
-            HttpClient client = HttpClient.newBuilder()
-                    .followRedirects(HttpClient.Redirect.NEVER) // importante
-                    .build();
-
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create("https://www.mercadolibre.com.ar/pampa/profile"))
                     .header("User-Agent", "Mozilla/5.0")
                     .header("Cookie", cookieHeader)
+                    .header("Accept-Encoding", "gzip")
                     .GET()
                     .build();
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            // El cliente compartido no sigue redirecciones (importante: el 302 al login es la respuesta)
+            HttpResponse<String> response = HttpClientes.principal().send(request, HttpClientes.ofString());
 
             int status = response.statusCode();
 
@@ -492,27 +975,13 @@ public class ScrapperService extends Service<Void> {
         }
         for (Producto.Attribute a : attributes) {
             if ("SELLER_SKU".equals(a.id) && a.valueName != null) {
-                return a.valueName.length() >= 7 ? a.valueName.substring(0, 7) : a.valueName;
+                return a.valueName.length() >= SkuCodec.LARGO ? a.valueName.substring(0, SkuCodec.LARGO)
+                        : a.valueName;
             }
         }
         return null;
     }
 
-    /**
-     * Normaliza el SKU para búsquedas: extrae los primeros 7 caracteres.
-     * Si el SKU tiene menos de 7 caracteres, retorna null (no se puede buscar).
-     */
-    private static String normalizarSkuParaBusqueda(String sku) {
-        if (sku == null || sku.isEmpty()) {
-            return null;
-        }
-        String skuUpper = sku.toUpperCase().trim();
-        if (skuUpper.length() < 7) {
-            return null; // SKU muy corto, no se puede buscar
-        }
-        return skuUpper.substring(0, 7);
-    }
-
     /**
      * Valida que una carpeta sea accesible (funciona con rutas locales y de red
      * UNC).
@@ -522,23 +991,22 @@ public class ScrapperService extends Service<Void> {
         try {
             Path carpetaPath = Paths.get(rutaCarpeta).normalize();
 
-            if (!Files.exists(carpetaPath)) {
+            // Una sola consulta de metadatos (en lugar de exists + isDirectory + isReadable, caro en SMB)
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(carpetaPath, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
                 throw new IllegalArgumentException(
                         "La carpeta de " + tipoCarpeta + " no existe: " + carpetaPath);
             }
 
-            if (!Files.isDirectory(carpetaPath)) {
+            if (!attrs.isDirectory()) {
                 throw new IllegalArgumentException(
                         "La ruta de " + tipoCarpeta + " no es un directorio: " + carpetaPath);
             }
 
-            if (!Files.isReadable(carpetaPath)) {
-                throw new IllegalArgumentException(
-                        "No se tienen permisos de lectura en la carpeta de " + tipoCarpeta + ": " + carpetaPath);
-            }
-
-            // Intentar listar el directorio para verificar acceso real (esto puede lanzar
-            // AccessDeniedException)
+            // Intentar listar el directorio para verificar acceso real y permisos de lectura (esto puede
+            // lanzar AccessDeniedException)
             try (Stream<Path> test = Files.list(carpetaPath)) {
                 test.limit(1).count(); // Solo verificar que se puede acceder
             }
@@ -560,634 +1028,138 @@ public class ScrapperService extends Service<Void> {
         }
     }
 
-    private static CellStyle crearHeaderStyle(Workbook workbook) {
-        CellStyle style = workbook.createCellStyle();
-
-        // Negrita
-        XSSFFont font = ((XSSFWorkbook) workbook).createFont();
-        font.setBold(true);
-        style.setFont(font);
-
-        // Fondo gris claro
-        style.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-        style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Centrados
-        style.setAlignment(HorizontalAlignment.CENTER);
-        style.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Bordes finos
-        style.setBorderTop(BorderStyle.THIN);
-        style.setBorderBottom(BorderStyle.THIN);
-        style.setBorderLeft(BorderStyle.THIN);
-        style.setBorderRight(BorderStyle.THIN);
-
-        return style;
-    }
-
-    private static CellStyle crearCenteredStyle(Workbook workbook) {
-        CellStyle style = workbook.createCellStyle();
-        style.setAlignment(HorizontalAlignment.CENTER);
-        style.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Bordes finos
-        style.setBorderTop(BorderStyle.THIN);
-        style.setBorderBottom(BorderStyle.THIN);
-        style.setBorderLeft(BorderStyle.THIN);
-        style.setBorderRight(BorderStyle.THIN);
-
-        return style;
-    }
-
-    private static CellStyle crearCenteredStyleWithColor(Workbook workbook, IndexedColors color) {
-        CellStyle style = workbook.createCellStyle();
-        style.setAlignment(HorizontalAlignment.CENTER);
-        style.setVerticalAlignment(VerticalAlignment.CENTER);
-        style.setFillForegroundColor(color.getIndex());
-        style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Bordes finos
-        style.setBorderTop(BorderStyle.THIN);
-        style.setBorderBottom(BorderStyle.THIN);
-        style.setBorderLeft(BorderStyle.THIN);
-        style.setBorderRight(BorderStyle.THIN);
-
-        return style;
-    }
-
-    // Caché de estilos para evitar crear estilos duplicados
-    private static final Map<String, CellStyle> estiloCache = new HashMap<>();
-
-    private static CellStyle obtenerEstiloConclusion(Workbook workbook, String conclusion) {
-        if (conclusion == null) {
-            return obtenerEstiloCached(workbook, "DEFAULT", () -> crearCenteredStyle(workbook));
-        }
-
-        String conclusionUpper = conclusion.toUpperCase();
-        String cacheKey;
-        CellStyle style;
-
-        if (conclusionUpper.equals("OK")) {
-            // Verde claro para OK
-            cacheKey = "OK";
-            style = obtenerEstiloCached(workbook, cacheKey,
-                    () -> crearCenteredStyleWithColor(workbook, IndexedColors.LIGHT_GREEN));
-        } else if (conclusionUpper.contains("CREAR")) {
-            // Rojo claro para CREAR
-            cacheKey = "CREAR";
-            style = obtenerEstiloCached(workbook, cacheKey,
-                    () -> crearCenteredStyleWithColor(workbook, IndexedColors.ROSE));
-        } else if (conclusionUpper.contains("SUBIR")) {
-            // Amarillo claro para SUBIR
-            cacheKey = "SUBIR";
-            style = obtenerEstiloCached(workbook, cacheKey,
-                    () -> crearCenteredStyleWithColor(workbook, IndexedColors.LIGHT_YELLOW));
-        } else {
-            // Estilo normal para otros casos (ERROR, etc.)
-            cacheKey = "DEFAULT";
-            style = obtenerEstiloCached(workbook, cacheKey, () -> crearCenteredStyle(workbook));
+    /**
+     * Completa el producto con la cantidad de archivos en las carpetas locales y genera las conclusiones.
+     */
+    private static void completarConArchivos(ProductoData p, IndexadorCarpetas.Resultado cacheImagenes,
+            IndexadorCarpetas.Resultado cacheVideos) {
+        // Normalizar SKU para búsqueda (debe tener al menos 7 caracteres)
+        long skuNormalizado = SkuCodec.codificarSku(p.sku);
+        if (skuNormalizado == SkuCodec.INVALIDO) {
+            // SKU inválido o muy corto, continuar sin buscar
+            return;
         }
 
-        return style;
-    }
-
-    private static CellStyle obtenerEstiloCached(Workbook workbook, String key,
-            java.util.function.Supplier<CellStyle> styleCreator) {
-        // Usar el workbook como parte de la clave para evitar conflictos entre
-        // diferentes workbooks
-        String fullKey = workbook.hashCode() + "_" + key;
-        return estiloCache.computeIfAbsent(fullKey, k -> styleCreator.get());
-    }
+        // Buscar usando caché (mucho más rápido)
+        // Con la verificación de resolución o de clips solo cuentan los archivos que se pueden subir
+        p.imagenesCarpeta = cacheImagenes.cantidad(skuNormalizado);
+        p.videosCarpeta = cacheVideos.cantidad(skuNormalizado);
 
-    private static void limpiarCacheEstilos(Workbook workbook) {
-        // Limpiar estilos del workbook actual del caché
-        int workbookHash = workbook.hashCode();
-        estiloCache.entrySet().removeIf(entry -> entry.getKey().startsWith(workbookHash + "_"));
-    }
+        // Generar conclusiones separadas para imágenes y videos
+        p.conclusionImagenes = generarConclusionImagenes(p.cantidadImagenes, p.imagenesCarpeta);
+        p.conclusionVideos = generarConclusionVideos(p.tieneVideo, p.videosCarpeta);
 
-    private static void aplicarStyleFila(Row row, CellStyle style) {
-        for (int i = 0; i < row.getLastCellNum(); i++) {
-            if (row.getCell(i) != null) {
-                row.getCell(i).setCellStyle(style);
-            }
+        // Si alguna carpeta no respondió, el conteo puede no estar al día: se avisa en la conclusión
+        if (cacheImagenes.afecta(skuNormalizado)) {
+            p.conclusionImagenes = marcarIncompleto(p.conclusionImagenes);
         }
-    }
-
-    private static void actualizarExcelConArchivos(Workbook workbook, Sheet scanSheet, String carpetaImagenes,
-            String carpetaVideos, CellStyle headerStyle, CellStyle centeredStyle) {
-        try {
-
-            // Verificar si ya existen las columnas, si no, agregarlas
-            Row header = scanSheet.getRow(0);
-            int colImagenesCarpeta = 7; // Columnas conocidas (ya están definidas arriba)
-            int colVideosCarpeta = 8;
-
-            // Aplicar estilo al header (reutilizando el estilo ya creado)
-            aplicarStyleFila(header, headerStyle);
-
-            // Procesar cada fila (empezando desde la 1, la 0 es el header)
-            int colSku = 4; // Columna SKU
-            int colImagenes = 2; // Columna IMAGENES (cantidad en ML)
-            int colVideos = 3; // Columna VIDEOS (SI/NO)
-            int colConclusionImagenes = 9; // Columna CONCLUSION IMAGENES
-            int colConclusionVideos = 10; // Columna CONCLUSION VIDEOS
-            int totalFilas = scanSheet.getLastRowNum() + 1;
-            AppLogger.info("Procesando " + totalFilas + " productos en carpetas...");
-
-            // Indexar archivos una sola vez para optimizar búsquedas (especialmente útil
-            // con Google Drive)
-            AppLogger.info("Indexando archivos de imágenes...");
-            Map<String, Integer> cacheImagenes = indexarArchivosPorSku(carpetaImagenes, IMAGE_EXTENSIONS_SET);
-            AppLogger.info("Indexando archivos de videos...");
-            Map<String, Integer> cacheVideos = indexarVideosPorSku(carpetaVideos);
-            AppLogger.info("Búsqueda indexada completada. Procesando productos...");
-
-            for (int rowNum = 1; rowNum < totalFilas; rowNum++) {
-                Row row = scanSheet.getRow(rowNum);
-                if (row == null)
-                    continue;
-
-                Cell skuCell = row.getCell(colSku);
-                if (skuCell == null)
-                    continue;
-
-                String sku;
-                try {
-                    sku = Util.getCellValue(skuCell);
-                } catch (Exception e) {
-                    AppLogger.warn("Error al leer SKU en fila " + rowNum + ": " + e.getMessage());
-                    continue;
-                }
-
-                // Normalizar SKU para búsqueda (debe tener al menos 7 caracteres)
-                String skuNormalizado = normalizarSkuParaBusqueda(sku);
-                if (skuNormalizado == null) {
-                    // SKU inválido o muy corto, continuar sin buscar
-                    continue;
-                }
-
-                // Buscar imágenes usando caché (mucho más rápido)
-                int cantidadImagenes = cacheImagenes.getOrDefault(skuNormalizado, 0);
-
-                // Buscar videos usando caché (mucho más rápido)
-                int cantidadVideos = cacheVideos.getOrDefault(skuNormalizado, 0);
-
-                // Actualizar celdas de archivos en carpetas
-                Cell cellImagenes = row.getCell(colImagenesCarpeta);
-                if (cellImagenes == null) {
-                    cellImagenes = row.createCell(colImagenesCarpeta);
-                }
-                cellImagenes.setCellValue(cantidadImagenes);
-                cellImagenes.setCellStyle(centeredStyle);
-
-                Cell cellVideos = row.getCell(colVideosCarpeta);
-                if (cellVideos == null) {
-                    cellVideos = row.createCell(colVideosCarpeta);
-                }
-                cellVideos.setCellValue(cantidadVideos);
-                cellVideos.setCellStyle(centeredStyle);
-
-                // Generar conclusiones separadas para imágenes y videos
-                String conclusionImagenes = generarConclusionImagenes(row, colImagenes, colImagenesCarpeta);
-                String conclusionVideos = generarConclusionVideos(row, colVideos, colVideosCarpeta);
-
-                // Escribir conclusión de imágenes
-                Cell cellConclusionImagenes = row.getCell(colConclusionImagenes);
-                if (cellConclusionImagenes == null) {
-                    cellConclusionImagenes = row.createCell(colConclusionImagenes);
-                }
-                cellConclusionImagenes.setCellValue(conclusionImagenes);
-                cellConclusionImagenes.setCellStyle(obtenerEstiloConclusion(workbook, conclusionImagenes));
-
-                // Escribir conclusión de videos
-                Cell cellConclusionVideos = row.getCell(colConclusionVideos);
-                if (cellConclusionVideos == null) {
-                    cellConclusionVideos = row.createCell(colConclusionVideos);
-                }
-                cellConclusionVideos.setCellValue(conclusionVideos);
-                cellConclusionVideos.setCellStyle(obtenerEstiloConclusion(workbook, conclusionVideos));
-
-                if ((rowNum % 100) == 0) {
-                    AppLogger.info("Procesados " + rowNum + " de " + totalFilas + " productos...");
-                }
-            }
-
-            // Ajustar ancho de columnas (solo las que pueden haber cambiado)
-            scanSheet.autoSizeColumn(colImagenesCarpeta);
-            scanSheet.autoSizeColumn(colVideosCarpeta);
-            scanSheet.autoSizeColumn(colConclusionImagenes);
-            scanSheet.autoSizeColumn(colConclusionVideos);
-            // Re-ajustar todas las columnas al final para asegurar que todo esté bien
-            for (int i = 0; i <= 10; i++) {
-                scanSheet.autoSizeColumn(i);
-            }
-
-            AppLogger.info("Excel actualizado con información de archivos en carpetas.");
-
-        } catch (Exception e) {
-            AppLogger.error("Error al actualizar Excel con archivos: " + e.getMessage(), e);
-            throw e;
+        if (cacheVideos.afecta(skuNormalizado)) {
+            p.conclusionVideos = marcarIncompleto(p.conclusionVideos);
         }
     }
 
-    private static String generarConclusionImagenes(Row row, int colImagenes, int colImagenesCarpeta) {
-        try {
-            // Leer cantidad de imágenes en ML (optimizado: leer directamente como número si
-            // es posible)
-            int cantidadImagenesML = 0;
-            Cell cellImagenes = row.getCell(colImagenes);
-            if (cellImagenes != null) {
-                if (cellImagenes.getCellType() == CellType.NUMERIC) {
-                    cantidadImagenesML = (int) cellImagenes.getNumericCellValue();
-                } else {
-                    try {
-                        String valorImagenes = Util.getCellValue(cellImagenes);
-                        if (valorImagenes != null && !valorImagenes.isEmpty()) {
-                            cantidadImagenesML = Integer.parseInt(valorImagenes);
-                        }
-                    } catch (Exception ignored) {
-                        // Si falla, queda en 0
-                    }
-                }
-            }
-
-            // Leer cantidad de imágenes en carpeta (optimizado)
-            int cantidadImagenesCarpeta = 0;
-            Cell cellImagenesCarpeta = row.getCell(colImagenesCarpeta);
-            if (cellImagenesCarpeta != null) {
-                if (cellImagenesCarpeta.getCellType() == CellType.NUMERIC) {
-                    cantidadImagenesCarpeta = (int) cellImagenesCarpeta.getNumericCellValue();
-                } else {
-                    try {
-                        String valorImagenesCarpeta = Util.getCellValue(cellImagenesCarpeta);
-                        if (valorImagenesCarpeta != null && !valorImagenesCarpeta.isEmpty()) {
-                            cantidadImagenesCarpeta = Integer.parseInt(valorImagenesCarpeta);
-                        }
-                    } catch (Exception ignored) {
-                        // Si falla, queda en 0
-                    }
-                }
-            }
-
-            // Verificar imágenes
-            if (cantidadImagenesML < 6) {
-                int imagenesFaltantes = 6 - cantidadImagenesML; // Cuántas faltan para llegar a 6 en ML
-
-                if (cantidadImagenesCarpeta < 6) {
-                    if (cantidadImagenesCarpeta > cantidadImagenesML) {
-                        // Hay más imágenes en carpeta que en ML (pueden que no estén subidas)
-                        int imagenesACrear = 6 - cantidadImagenesCarpeta;
-                        return "CREAR " + imagenesACrear + " " + (imagenesACrear == 1 ? "imagen" : "imágenes");
-                    } else {
-                        // No hay más imágenes en carpeta que en ML, solo crear las faltantes
-                        return "CREAR " + imagenesFaltantes + " " + (imagenesFaltantes == 1 ? "imagen" : "imágenes");
-                    }
-                } else if (cantidadImagenesCarpeta == 6) {
-                    // Ya hay 6 en carpeta, solo subir las faltantes
-                    return "SUBIR " + imagenesFaltantes + " " + (imagenesFaltantes == 1 ? "imagen" : "imágenes");
-                } else {
-                    // Hay más de 6 imágenes en carpeta
-                    return "SUBIR " + imagenesFaltantes + " " + (imagenesFaltantes == 1 ? "imagen" : "imágenes")
-                            + "  (se pueden subir hasta " + (cantidadImagenesCarpeta - cantidadImagenesML) + " más)";
-                }
-            }
-
-            // Si todo está OK
-            return "OK";
-
-        } catch (Exception e) {
-            AppLogger.warn("Error al generar conclusión de imágenes: " + e.getMessage());
-            return "ERROR";
-        }
+    private static String marcarIncompleto(String conclusion) {
+        // "OK" no depende de las carpetas (ya está publicado en ML)
+        return "OK".equals(conclusion) ? conclusion : conclusion + " (índice incompleto)";
     }
 
-    private static String generarConclusionVideos(Row row, int colVideos, int colVideosCarpeta) {
-        try {
-            // Leer si tiene video en ML (optimizado)
-            String tieneVideoStr = "NO";
-            Cell cellVideos = row.getCell(colVideos);
-            if (cellVideos != null) {
-                if (cellVideos.getCellType() == CellType.STRING) {
-                    tieneVideoStr = cellVideos.getStringCellValue();
-                } else {
-                    try {
-                        tieneVideoStr = Util.getCellValue(cellVideos);
-                    } catch (Exception ignored) {
-                        // Si falla, queda "NO"
-                    }
-                }
-            }
-            boolean tieneVideoML = "SI".equalsIgnoreCase(tieneVideoStr);
-
-            // Leer cantidad de videos en carpeta (optimizado)
-            int cantidadVideosCarpeta = 0;
-            Cell cellVideosCarpeta = row.getCell(colVideosCarpeta);
-            if (cellVideosCarpeta != null) {
-                if (cellVideosCarpeta.getCellType() == CellType.NUMERIC) {
-                    cantidadVideosCarpeta = (int) cellVideosCarpeta.getNumericCellValue();
-                } else {
-                    try {
-                        String valorVideosCarpeta = Util.getCellValue(cellVideosCarpeta);
-                        if (valorVideosCarpeta != null && !valorVideosCarpeta.isEmpty()) {
-                            cantidadVideosCarpeta = Integer.parseInt(valorVideosCarpeta);
-                        }
-                    } catch (Exception ignored) {
-                        // Si falla, queda en 0
-                    }
-                }
-            }
+    static String generarConclusionImagenes(int cantidadImagenesML, int cantidadImagenesCarpeta) {
+        // Verificar imágenes
+        if (cantidadImagenesML < 6) {
+            int imagenesFaltantes = 6 - cantidadImagenesML; // Cuántas faltan para llegar a 6 en ML
 
-            // Verificar video
-            if (!tieneVideoML) {
-                if (cantidadVideosCarpeta > 0) {
-                    return "SUBIR video";
+            if (cantidadImagenesCarpeta < 6) {
+                if (cantidadImagenesCarpeta > cantidadImagenesML) {
+                    // Hay más imágenes en carpeta que en ML (pueden que no estén subidas)
+                    int imagenesACrear = 6 - cantidadImagenesCarpeta;
+                    return "CREAR " + imagenesACrear + " " + (imagenesACrear == 1 ? "imagen" : "imágenes");
                 } else {
-                    return "CREAR video";
+                    // No hay más imágenes en carpeta que en ML, solo crear las faltantes
+                    return "CREAR " + imagenesFaltantes + " " + (imagenesFaltantes == 1 ? "imagen" : "imágenes");
                 }
+            } else if (cantidadImagenesCarpeta == 6) {
+                // Ya hay 6 en carpeta, solo subir las faltantes
+                return "SUBIR " + imagenesFaltantes + " " + (imagenesFaltantes == 1 ? "imagen" : "imágenes");
+            } else {
+                // Hay más de 6 imágenes en carpeta
+                return "SUBIR " + imagenesFaltantes + " " + (imagenesFaltantes == 1 ? "imagen" : "imágenes")
+                        + "  (se pueden subir hasta " + (cantidadImagenesCarpeta - cantidadImagenesML) + " más)";
             }
-
-            // Si todo está OK
-            return "OK";
-
-        } catch (Exception e) {
-            AppLogger.warn("Error al generar conclusión de videos: " + e.getMessage());
-            return "ERROR";
         }
-    }
-
-    private static int contarVideosPorSku(String carpetaVideos, String sku) {
-        if (sku == null || sku.isEmpty() || carpetaVideos == null || carpetaVideos.isEmpty()) {
-            return 0;
-        }
-
-        try {
-            // Normalizar la ruta para manejar rutas UNC (\\server\share) y rutas
-            // relativas/absolutas
-            Path carpetaPath = Paths.get(carpetaVideos).normalize();
 
-            // Verificar existencia y tipo (funciona con rutas locales y de red)
-            if (!Files.exists(carpetaPath)) {
-                AppLogger.warn("La carpeta de videos no existe: " + carpetaPath);
-                return 0;
-            }
-
-            if (!Files.isDirectory(carpetaPath)) {
-                AppLogger.warn("La ruta de videos no es un directorio: " + carpetaPath);
-                return 0;
-            }
+        // Si todo está OK
+        return "OK";
+    }
 
-            // Verificar permisos de lectura (importante para rutas de red)
-            if (!Files.isReadable(carpetaPath)) {
-                AppLogger.warn("No se tienen permisos de lectura en la carpeta de videos: " + carpetaPath);
-                return 0;
-            }
+    static String generarConclusionVideos(String tieneVideo, int cantidadVideosCarpeta) {
+        boolean tieneVideoML = "SI".equalsIgnoreCase(tieneVideo);
 
-            int contador = 0;
-            String skuUpper = sku.toUpperCase();
-
-            // Buscar carpetas que coincidan con el SKU (primeros 7 caracteres)
-            // Las operaciones de I/O aquí pueden lanzar AccessDeniedException y
-            // FileSystemException
-            try (Stream<Path> carpetas = Files.list(carpetaPath)) {
-                List<Path> carpetasSku = carpetas
-                        .filter(Files::isDirectory)
-                        .filter(carpeta -> {
-                            String nombreCarpeta = carpeta.getFileName().toString().toUpperCase();
-                            // Extraer los primeros 7 caracteres del nombre de la carpeta
-                            if (nombreCarpeta.length() < 7) {
-                                return false;
-                            }
-                            String primeros7Caracteres = nombreCarpeta.substring(0, 7);
-                            // Comparar con el SKU
-                            return primeros7Caracteres.equals(skuUpper);
-                        })
-                        .collect(Collectors.toList());
-
-                // Dentro de cada carpeta encontrada, contar los archivos de video
-                for (Path carpetaSku : carpetasSku) {
-                    try (Stream<Path> archivos = Files.list(carpetaSku)) {
-                        long videosEnCarpeta = archivos
-                                .filter(Files::isRegularFile)
-                                .filter(archivo -> {
-                                    String nombreArchivo = archivo.getFileName().toString().toUpperCase();
-                                    // Usar Set para búsqueda más rápida
-                                    String extension = nombreArchivo
-                                            .substring(Math.max(0, nombreArchivo.lastIndexOf('.')));
-                                    return VIDEO_EXTENSIONS_SET.contains(extension.toLowerCase());
-                                })
-                                .count();
-                        contador += (int) videosEnCarpeta;
-                    }
-                }
+        // Verificar video
+        if (!tieneVideoML) {
+            if (cantidadVideosCarpeta > 0) {
+                return "SUBIR video";
+            } else {
+                return "CREAR video";
             }
-
-            return contador;
-
-        } catch (AccessDeniedException e) {
-            AppLogger.warn("Acceso denegado a la carpeta de videos: " + carpetaVideos + " - " + e.getMessage());
-            return 0;
-        } catch (FileSystemException e) {
-            // Errores comunes con rutas de red: conexión perdida, servidor no disponible,
-            // etc.
-            AppLogger.warn("Error del sistema de archivos al acceder a la carpeta de videos: " + carpetaVideos + " - "
-                    + e.getMessage());
-            return 0;
-        } catch (IOException e) {
-            AppLogger.warn("Error de I/O al buscar videos en carpeta " + carpetaVideos + ": " + e.getMessage());
-            return 0;
         }
+
+        // Si todo está OK
+        return "OK";
     }
 
     /**
-     * Indexa todos los archivos por SKU en un Map para búsquedas rápidas.
-     * Recorre la carpeta una sola vez en lugar de hacerlo por cada SKU.
+     * Indexa todos los archivos por SKU en un mapa para búsquedas rápidas.
+     * Recorre la carpeta una sola vez en lugar de hacerlo por cada SKU, listando subcarpetas en paralelo.
+     * Si skusObjetivo no es null, solo se cuentan esos SKUs.
      */
-    private static Map<String, Integer> indexarArchivosPorSku(String carpeta, Set<String> extensionesSet) {
-        Map<String, Integer> index = new HashMap<>();
-
+    private static IndexadorCarpetas.Resultado indexarArchivosPorSku(String carpeta, Set<String> extensionesSet,
+            MapaSkuConteo skusObjetivo, boolean verificarResolucion, boolean descartarDuplicados,
+            boolean conArchivos) {
         if (carpeta == null || carpeta.isEmpty()) {
-            return index;
+            return IndexadorCarpetas.Resultado.vacio();
         }
 
         try {
             Path carpetaPath = Paths.get(carpeta).normalize();
 
-            if (!Files.exists(carpetaPath) || !Files.isDirectory(carpetaPath) || !Files.isReadable(carpetaPath)) {
+            // Una sola consulta de metadatos: los permisos se comprueban al listar
+            if (!Files.isDirectory(carpetaPath)) {
                 AppLogger.warn("No se puede acceder a la carpeta de imágenes para indexar: " + carpetaPath);
-                return index;
+                return IndexadorCarpetas.Resultado.vacio();
             }
 
-            try (Stream<Path> paths = Files.walk(carpetaPath)) {
-                paths.filter(Files::isRegularFile)
-                        .forEach(path -> {
-                            try {
-                                String nombreArchivoCompleto = path.getFileName().toString().toUpperCase();
-
-                                int lastDot = nombreArchivoCompleto.lastIndexOf('.');
-                                if (lastDot == -1 || lastDot == nombreArchivoCompleto.length() - 1) {
-                                    return;
-                                }
-
-                                String extension = nombreArchivoCompleto.substring(lastDot).toLowerCase();
-                                if (!extensionesSet.contains(extension)) {
-                                    return;
-                                }
-
-                                String nombreSinExtension = nombreArchivoCompleto.substring(0, lastDot);
-                                if (nombreSinExtension.length() < 7) {
-                                    return;
-                                }
-
-                                String skuKey = nombreSinExtension.substring(0, 7);
-                                index.put(skuKey, index.getOrDefault(skuKey, 0) + 1);
-                            } catch (Exception e) {
-                                // Ignorar errores en archivos individuales
-                            }
-                        });
-            }
+            return IndexadorCarpetas.indexarArchivos(carpetaPath, extensionesSet, skusObjetivo, verificarResolucion,
+                    descartarDuplicados, conArchivos);
         } catch (Exception e) {
             AppLogger.warn("Error al indexar archivos de imágenes: " + e.getMessage());
+            return IndexadorCarpetas.Resultado.vacio();
         }
-
-        return index;
     }
 
     /**
-     * Indexa todos los videos por SKU en un Map para búsquedas rápidas.
-     * Recorre la carpeta una sola vez en lugar de hacerlo por cada SKU.
+     * Indexa todos los videos por SKU en un mapa para búsquedas rápidas.
+     * Recorre la carpeta una sola vez en lugar de hacerlo por cada SKU, listando las carpetas de SKU en paralelo.
+     * Si skusObjetivo no es null, solo se listan las carpetas de esos SKUs (normalizados).
      */
-    private static Map<String, Integer> indexarVideosPorSku(String carpetaVideos) {
-        Map<String, Integer> index = new HashMap<>();
-
+    private static IndexadorCarpetas.Resultado indexarVideosPorSku(String carpetaVideos, MapaSkuConteo skusObjetivo,
+            boolean verificarClips) {
         if (carpetaVideos == null || carpetaVideos.isEmpty()) {
-            return index;
+            return IndexadorCarpetas.Resultado.vacio();
         }
 
         try {
             Path carpetaPath = Paths.get(carpetaVideos).normalize();
 
-            if (!Files.exists(carpetaPath) || !Files.isDirectory(carpetaPath) || !Files.isReadable(carpetaPath)) {
+            // Una sola consulta de metadatos: los permisos se comprueban al listar
+            if (!Files.isDirectory(carpetaPath)) {
                 AppLogger.warn("No se puede acceder a la carpeta de videos para indexar: " + carpetaPath);
-                return index;
+                return IndexadorCarpetas.Resultado.vacio();
             }
 
-            try (Stream<Path> carpetas = Files.list(carpetaPath)) {
-                carpetas.filter(Files::isDirectory)
-                        .forEach(carpeta -> {
-                            try {
-                                String nombreCarpeta = carpeta.getFileName().toString().toUpperCase();
-                                if (nombreCarpeta.length() < 7) {
-                                    return;
-                                }
-
-                                String skuKey = nombreCarpeta.substring(0, 7);
-
-                                try (Stream<Path> archivos = Files.list(carpeta)) {
-                                    long count = archivos
-                                            .filter(Files::isRegularFile)
-                                            .filter(archivo -> {
-                                                String nombreArchivo = archivo.getFileName().toString().toUpperCase();
-                                                String extension = nombreArchivo
-                                                        .substring(Math.max(0, nombreArchivo.lastIndexOf('.')));
-                                                return VIDEO_EXTENSIONS_SET.contains(extension.toLowerCase());
-                                            })
-                                            .count();
-
-                                    if (count > 0) {
-                                        index.put(skuKey, index.getOrDefault(skuKey, 0) + (int) count);
-                                    }
-                                }
-                            } catch (Exception e) {
-                                // Ignorar errores en carpetas individuales
-                            }
-                        });
-            }
+            return IndexadorCarpetas.indexarVideos(carpetaPath, VIDEO_EXTENSIONS_SET, skusObjetivo, verificarClips);
         } catch (Exception e) {
             AppLogger.warn("Error al indexar videos: " + e.getMessage());
-        }
-
-        return index;
-    }
-
-    private static int contarArchivosPorSku(String carpeta, String sku, Set<String> extensionesSet) {
-        if (sku == null || sku.isEmpty() || carpeta == null || carpeta.isEmpty()) {
-            return 0;
-        }
-
-        try {
-            // Normalizar la ruta para manejar rutas UNC (\\server\share) y rutas
-            // relativas/absolutas
-            Path carpetaPath = Paths.get(carpeta).normalize();
-
-            // Verificar existencia y tipo (funciona con rutas locales y de red)
-            if (!Files.exists(carpetaPath)) {
-                AppLogger.warn("La carpeta no existe: " + carpetaPath);
-                return 0;
-            }
-
-            if (!Files.isDirectory(carpetaPath)) {
-                AppLogger.warn("La ruta no es un directorio: " + carpetaPath);
-                return 0;
-            }
-
-            // Verificar permisos de lectura (importante para rutas de red)
-            if (!Files.isReadable(carpetaPath)) {
-                AppLogger.warn("No se tienen permisos de lectura en la carpeta: " + carpetaPath);
-                return 0;
-            }
-
-            int contador = 0;
-            String skuUpper = sku.toUpperCase();
-
-            // Las operaciones de I/O aquí pueden lanzar AccessDeniedException y
-            // FileSystemException
-            try (Stream<Path> paths = Files.walk(carpetaPath)) {
-                contador = (int) paths
-                        .filter(Files::isRegularFile)
-                        .filter(path -> {
-                            String nombreArchivoCompleto = path.getFileName().toString().toUpperCase();
-
-                            // Verificar extensión primero usando Set para búsqueda más rápida
-                            int lastDot = nombreArchivoCompleto.lastIndexOf('.');
-                            if (lastDot == -1 || lastDot == nombreArchivoCompleto.length() - 1) {
-                                return false; // Sin extensión válida
-                            }
-
-                            String extension = nombreArchivoCompleto.substring(lastDot).toLowerCase();
-                            if (!extensionesSet.contains(extension)) {
-                                return false; // Extensión no válida
-                            }
-
-                            // Remover la extensión para obtener solo el nombre
-                            String nombreSinExtension = nombreArchivoCompleto.substring(0, lastDot);
-
-                            // Extraer los primeros 7 caracteres del nombre del archivo (sin extensión)
-                            if (nombreSinExtension.length() < 7) {
-                                return false;
-                            }
-
-                            String primeros7Caracteres = nombreSinExtension.substring(0, 7);
-
-                            // Comparar con el SKU
-                            return primeros7Caracteres.equals(skuUpper);
-                        })
-                        .count();
-            }
-
-            return contador;
-
-        } catch (AccessDeniedException e) {
-            AppLogger.warn("Acceso denegado a la carpeta: " + carpeta + " - " + e.getMessage());
-            return 0;
-        } catch (FileSystemException e) {
-            // Errores comunes con rutas de red: conexión perdida, servidor no disponible,
-            // etc.
-            AppLogger
-                    .warn("Error del sistema de archivos al acceder a la carpeta: " + carpeta + " - " + e.getMessage());
-            return 0;
-        } catch (IOException e) {
-            AppLogger.warn("Error de I/O al buscar archivos en carpeta " + carpeta + ": " + e.getMessage());
-            return 0;
+            return IndexadorCarpetas.Resultado.vacio();
         }
     }
 
@@ -0,0 +1,93 @@
+package ar.com.leo.ml;
+
+/**
+ * Codifica el SKU normalizado (los primeros 7 caracteres en mayúsculas) en un long, leyendo directo del
+ * nombre o del texto original sin crear Strings intermedios (ni toUpperCase ni substring).
+ * Cada carácter ocupa 9 bits (7 x 9 = 63), así el código siempre es positivo y -1 queda libre para "sin SKU".
+ * Los caracteres en mayúsculas por encima de U+01FF no entran en 9 bits: esos SKUs se tratan como inválidos.
+ */
+final class SkuCodec {
+
+    static final int LARGO = 7;
+    static final long INVALIDO = -1L;
+
+    private static final int BITS = 9;
+    private static final int MAX_CHAR = (1 << BITS) - 1;
+
+    private SkuCodec() {
+    }
+
+    /**
+     * Código de los primeros 7 caracteres de texto (p. ej. nombre de archivo o carpeta), o INVALIDO si tiene
+     * menos de 7 caracteres.
+     */
+    static long codificar(CharSequence texto) {
+        if (texto == null || texto.length() < LARGO) {
+            return INVALIDO;
+        }
+        return codificar(texto, 0);
+    }
+
+    /**
+     * Igual que codificar, pero ignorando los espacios al principio y al final (SKUs de la API o del Excel).
+     */
+    static long codificarSku(CharSequence sku) {
+        if (sku == null) {
+            return INVALIDO;
+        }
+        // Mismos caracteres que descarta String.trim()
+        int desde = 0;
+        int hasta = sku.length();
+        while (desde < hasta && sku.charAt(desde) <= ' ') {
+            desde++;
+        }
+        while (hasta > desde && sku.charAt(hasta - 1) <= ' ') {
+            hasta--;
+        }
+        if (hasta - desde < LARGO) {
+            return INVALIDO;
+        }
+        return codificar(sku, desde);
+    }
+
+    private static long codificar(CharSequence texto, int desde) {
+        long codigo = 0;
+        for (int i = desde; i < desde + LARGO; i++) {
+            char c = Character.toUpperCase(texto.charAt(i));
+            if (c > MAX_CHAR) {
+                return INVALIDO;
+            }
+            codigo = (codigo << BITS) | c;
+        }
+        return codigo;
+    }
+
+    /**
+     * Los 7 caracteres del SKU (para logs o para mostrar).
+     */
+    static String decodificar(long codigo) {
+        char[] chars = new char[LARGO];
+        for (int i = LARGO - 1; i >= 0; i--) {
+            chars[i] = (char) (codigo & MAX_CHAR);
+            codigo >>>= BITS;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * true si los primeros 7 caracteres son dígitos ASCII (lo mismo que matches("\\d{7}") sobre el prefijo).
+     */
+    static boolean empiezaCon7Digitos(CharSequence texto) {
+        if (texto == null || texto.length() < LARGO) {
+            return false;
+        }
+        for (int i = 0; i < LARGO; i++) {
+            char c = texto.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,25 @@
+package ar.com.leo.ml.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hashes perceptuales guardados entre ejecuciones para comparar las imágenes de las carpetas con las publicadas
+ * (ver HashPerceptual). Solo se calculan los que faltan: imágenes publicadas nuevas o archivos nuevos o modificados.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class HashesImagenes {
+
+    public static final int VERSION = 1;
+
+    public int version = VERSION;
+
+    // Imágenes publicadas por id de MercadoLibre (el contenido de un id no cambia)
+    public Map<String, Long> publicadas = new HashMap<>();
+
+    // Archivos locales por ruta absoluta: { tamaño (-1 si no se conoce), fecha, hash }
+    public Map<String, long[]> locales = new HashMap<>();
+
+}
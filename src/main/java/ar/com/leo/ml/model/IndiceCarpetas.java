@@ -0,0 +1,49 @@
+package ar.com.leo.ml.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice de una carpeta de imágenes o videos guardado entre ejecuciones.
+ * Por cada directorio se guarda su fecha de modificación y lo que se obtuvo al listarlo; si la fecha no
+ * cambió, el listado sigue siendo válido y no hace falta volver a leerlo.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class IndiceCarpetas {
+
+    public static final int VERSION = 2;
+
+    public int version = VERSION;
+    public String firma; // tipo + ruta + extensiones; si no coincide, el índice no sirve
+
+    // Clave: ruta relativa a la carpeta raíz con "/" ("" es la raíz)
+    public Map<String, Directorio> directorios = new HashMap<>();
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Directorio {
+        public long mtime; // -1: modificado durante el listado, no reutilizar
+        public List<String> subdirectorios;
+        // Archivos en este directorio (sin subdirectorios) por SKU; los SKUs van codificados (ver SkuCodec)
+        public long[] skus;
+        public int[] cantidades;
+
+        // Solo con la verificación de resolución o de clips (null si no se verificó):
+        // archivos que cumplen los requisitos por SKU (alineado con skus)
+        public int[] aptas;
+        // Archivos con su fecha (con verificación o al descartar duplicados) y lo leído de cada uno, para no
+        // volver a leerlo si el directorio se lista de nuevo:
+        // dimensiones de imagen (ver DimensionesImagen) o duración y dimensiones de video (ver MetadatosVideo)
+        public String[] archivos;
+        public long[] fechasArchivos;
+        public long[] metadatos; // -1 si no se pudo leer (null si solo se descartan duplicados)
+
+        // Solo al descartar imágenes duplicadas (null si no): tamaño y hash del contenido de cada archivo
+        // (alineados con archivos), para no volver a leer los que no cambiaron
+        public long[] tamanos; // -1 si no se conoce (enlace simbólico)
+        public long[] hashes; // 0 si no se calculó (solo se calcula si otro archivo del SKU tiene el mismo tamaño)
+    }
+
+}
@@ -0,0 +1,54 @@
+package ar.com.leo.ml.model;
+
+/**
+ * Opciones de ejecución elegidas en la ventana.
+ * Los valores por defecto reproducen el comportamiento original (reporte completo en la 2da hoja).
+ */
+public class Opciones {
+
+    public enum Particion {
+        NINGUNA, // Todo el reporte en la 2da hoja
+        POR_FILAS, // Un archivo por cada bloque de filasPorParte filas
+        POR_ESTADO // Un archivo por estado (active, paused, etc.), rotando también por filasPorParte
+    }
+
+    public Particion particion = Particion.NINGUNA;
+    public int filasPorParte = 100_000;
+
+    // Exportación columnar junto al Excel (mismas columnas del reporte)
+    public boolean exportarCsv = false;
+    public boolean exportarJsonl = false;
+    public boolean comprimirExportacion = false; // .gz
+
+    // Procesar solo las publicaciones cuyos SKUs están en la 1ra hoja del Excel
+    public boolean soloSkusHoja1 = false;
+
+    // Memoria acotada: las filas se ordenan por tandas en disco y el reporte se escribe en streaming
+    public boolean memoriaAcotada = false;
+    public int presupuestoMemoriaMb = 64;
+
+    // Mantener el índice de carpetas en memoria entre ejecuciones (vigilando cambios)
+    public boolean indiceResidente = false;
+
+    // Contar solo las imágenes que cumplen la resolución mínima de MercadoLibre (lee la cabecera de cada imagen)
+    public boolean verificarResolucion = false;
+
+    // Contar solo los videos con formato de clip (duración y orientación, desde la cabecera del contenedor)
+    public boolean verificarClips = false;
+
+    // Contar cada imagen una vez aunque esté copiada con otro nombre o en otra subcarpeta (compara el contenido)
+    public boolean descartarDuplicados = false;
+
+    // Comparar las imágenes de la carpeta con las publicadas (descarga las publicadas y calcula hashes perceptuales)
+    public boolean compararPublicadas = false;
+
+    // Descargar las imágenes publicadas a la carpeta de los SKUs que no tienen ninguna
+    public boolean descargarPublicadas = false;
+
+    // Si una página de publicación tarda más que el 95% de las demás, pedirla otra vez y usar la primera respuesta
+    public boolean duplicarDemoradas = false;
+
+    // Escribir en la columna URL la dirección a la que redirige el permalink (publicaciones movidas)
+    public boolean actualizarUrls = false;
+
+}
@@ -1,5 +1,7 @@
 package ar.com.leo.ml.model;
 
+import java.util.List;
+
 /**
  * Clase para almacenar los datos que van al Excel.
  * Representa tanto productos principales como variaciones.
@@ -14,11 +16,26 @@ public class ProductoData {
     public String tipoPublicacion; // "CATALOGO" o "TRADICIONAL"
     public boolean esVariacion; // Indica si es una variación
     public String userProductId; // Solo para variaciones
+    public int imagenesCarpeta; // Imágenes encontradas en la carpeta local
+    public int videosCarpeta; // Videos encontrados en la carpeta local
+    public String conclusionImagenes; // null si el SKU no permite buscar en carpetas
+    public String conclusionVideos; // null si el SKU no permite buscar en carpetas
+    public int imagenesNoPublicadas = -1; // Imágenes de la carpeta que no están en la publicación (-1: sin comparar)
+
+    // Imágenes de la publicación, solo hasta completar la fila (no van al reporte)
+    public List<Producto.Picture> imagenes;
+
+    /**
+     * Constructor vacío para reconstruir filas volcadas a disco
+     */
+    public ProductoData() {
+    }
 
     public ProductoData(Producto producto, String sku) {
         this.status = producto.status;
         this.mla = producto.id;
         this.cantidadImagenes = producto.pictures != null ? producto.pictures.size() : 0;
+        this.imagenes = producto.pictures;
         this.tieneVideo = producto.videoId != null ? producto.videoId.toString() : "NO";
         this.sku = sku;
         this.permalink = producto.permalink;
@@ -34,6 +51,7 @@ public class ProductoData {
         this.status = productoPadre.status;
         this.mla = productoPadre.id;
         this.cantidadImagenes = productoPadre.pictures != null ? productoPadre.pictures.size() : 0;
+        this.imagenes = productoPadre.pictures;
         this.tieneVideo = productoPadre.videoId != null ? productoPadre.videoId.toString() : "NO";
         this.sku = skuVariacion;
         this.permalink = productoPadre.permalink;
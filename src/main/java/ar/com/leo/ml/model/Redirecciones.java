@@ -0,0 +1,23 @@
+package ar.com.leo.ml.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Permalinks que redirigen a otra URL (publicaciones movidas, por ejemplo al catálogo), guardados entre
+ * ejecuciones para pedir directamente la nueva.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Redirecciones {
+
+    // 2: solo mudanzas permanentes a otra publicación (la 1 podía guardar redirecciones al login)
+    public static final int VERSION = 2;
+
+    public int version = VERSION;
+
+    // URL vieja → URL a la que redirige
+    public Map<String, String> urls = new HashMap<>();
+
+}
@@ -17,10 +17,4 @@ public class TokensML {
 
     public long issuedAt;  // timestamp en milisegundos
 
-    public boolean isExpired() {
-        long now = System.currentTimeMillis();
-        long elapsed = (now - issuedAt) / 1000;
-        return elapsed >= expiresIn;
-    }
-
 }
@@ -15,6 +15,7 @@ import java.util.prefs.Preferences;
 
 import ar.com.leo.AppLogger;
 import ar.com.leo.ml.ScrapperService;
+import ar.com.leo.ml.model.Opciones;
 
 public class VentanaController implements Initializable {
 
@@ -26,6 +27,34 @@ public class VentanaController implements Initializable {
     private TextField ubicacionCarpetaVideos;
     @FXML
     private TextField requestsPorSegundo;
+    @FXML
+    private ChoiceBox<String> salidaReporte;
+    @FXML
+    private CheckBox exportarCsv;
+    @FXML
+    private CheckBox exportarJsonl;
+    @FXML
+    private CheckBox comprimirExportacion;
+    @FXML
+    private CheckBox soloSkusHoja1;
+    @FXML
+    private CheckBox memoriaAcotada;
+    @FXML
+    private CheckBox indiceResidente;
+    @FXML
+    private CheckBox verificarResolucion;
+    @FXML
+    private CheckBox verificarClips;
+    @FXML
+    private CheckBox descartarDuplicados;
+    @FXML
+    private CheckBox compararPublicadas;
+    @FXML
+    private CheckBox descargarPublicadas;
+    @FXML
+    private CheckBox duplicarDemoradas;
+    @FXML
+    private CheckBox actualizarUrls;
 
     @FXML
     private TextArea logTextArea;
@@ -40,7 +69,12 @@ public class VentanaController implements Initializable {
     private File carpetaImagenes; // Carpeta de imágenes
     private File carpetaVideos; // Carpeta de videos
 
+    // Textos de la lista de salida, en el mismo orden que Opciones.Particion
+    private static final String[] SALIDAS_REPORTE = { "Excel (2da hoja)", "Excel particionado por filas",
+            "Excel particionado por estado" };
+
     public void initialize(URL url, ResourceBundle rb) {
+        salidaReporte.getItems().addAll(SALIDAS_REPORTE);
         loadPreferences();
         Main.stage.setOnCloseRequest(event -> {
             savePreferences();
@@ -81,6 +115,28 @@ public class VentanaController implements Initializable {
 
         String requestsPorSeg = prefs.get("requestsPorSegundo", "5");
         requestsPorSegundo.setText(requestsPorSeg);
+
+        Opciones.Particion particion;
+        try {
+            particion = Opciones.Particion.valueOf(prefs.get("salidaReporte", Opciones.Particion.NINGUNA.name()));
+        } catch (IllegalArgumentException e) {
+            particion = Opciones.Particion.NINGUNA;
+        }
+        salidaReporte.getSelectionModel().select(particion.ordinal());
+
+        exportarCsv.setSelected(prefs.getBoolean("exportarCsv", false));
+        exportarJsonl.setSelected(prefs.getBoolean("exportarJsonl", false));
+        comprimirExportacion.setSelected(prefs.getBoolean("comprimirExportacion", false));
+        soloSkusHoja1.setSelected(prefs.getBoolean("soloSkusHoja1", false));
+        memoriaAcotada.setSelected(prefs.getBoolean("memoriaAcotada", false));
+        indiceResidente.setSelected(prefs.getBoolean("indiceResidente", false));
+        verificarResolucion.setSelected(prefs.getBoolean("verificarResolucion", false));
+        verificarClips.setSelected(prefs.getBoolean("verificarClips", false));
+        descartarDuplicados.setSelected(prefs.getBoolean("descartarDuplicados", false));
+        compararPublicadas.setSelected(prefs.getBoolean("compararPublicadas", false));
+        descargarPublicadas.setSelected(prefs.getBoolean("descargarPublicadas", false));
+        duplicarDemoradas.setSelected(prefs.getBoolean("duplicarDemoradas", false));
+        actualizarUrls.setSelected(prefs.getBoolean("actualizarUrls", false));
     }
 
     private void savePreferences() {
@@ -91,6 +147,40 @@ public class VentanaController implements Initializable {
         prefs.put("ubicacionCarpetaVideos", ubicacionCarpetaVideos.getText());
         prefs.put("cookies", cookiesTextArea.getText());
         prefs.put("requestsPorSegundo", requestsPorSegundo.getText());
+        prefs.put("salidaReporte", leerOpciones().particion.name());
+        prefs.putBoolean("exportarCsv", exportarCsv.isSelected());
+        prefs.putBoolean("exportarJsonl", exportarJsonl.isSelected());
+        prefs.putBoolean("comprimirExportacion", comprimirExportacion.isSelected());
+        prefs.putBoolean("soloSkusHoja1", soloSkusHoja1.isSelected());
+        prefs.putBoolean("memoriaAcotada", memoriaAcotada.isSelected());
+        prefs.putBoolean("indiceResidente", indiceResidente.isSelected());
+        prefs.putBoolean("verificarResolucion", verificarResolucion.isSelected());
+        prefs.putBoolean("verificarClips", verificarClips.isSelected());
+        prefs.putBoolean("descartarDuplicados", descartarDuplicados.isSelected());
+        prefs.putBoolean("compararPublicadas", compararPublicadas.isSelected());
+        prefs.putBoolean("descargarPublicadas", descargarPublicadas.isSelected());
+        prefs.putBoolean("duplicarDemoradas", duplicarDemoradas.isSelected());
+        prefs.putBoolean("actualizarUrls", actualizarUrls.isSelected());
+    }
+
+    private Opciones leerOpciones() {
+        Opciones opciones = new Opciones();
+        int salida = salidaReporte.getSelectionModel().getSelectedIndex();
+        opciones.particion = salida >= 0 ? Opciones.Particion.values()[salida] : Opciones.Particion.NINGUNA;
+        opciones.exportarCsv = exportarCsv.isSelected();
+        opciones.exportarJsonl = exportarJsonl.isSelected();
+        opciones.comprimirExportacion = comprimirExportacion.isSelected();
+        opciones.soloSkusHoja1 = soloSkusHoja1.isSelected();
+        opciones.memoriaAcotada = memoriaAcotada.isSelected();
+        opciones.indiceResidente = indiceResidente.isSelected();
+        opciones.verificarResolucion = verificarResolucion.isSelected();
+        opciones.verificarClips = verificarClips.isSelected();
+        opciones.descartarDuplicados = descartarDuplicados.isSelected();
+        opciones.compararPublicadas = compararPublicadas.isSelected();
+        opciones.descargarPublicadas = descargarPublicadas.isSelected();
+        opciones.duplicarDemoradas = duplicarDemoradas.isSelected();
+        opciones.actualizarUrls = actualizarUrls.isSelected();
+        return opciones;
     }
 
     @FXML
@@ -222,7 +312,7 @@ public class VentanaController implements Initializable {
         }
 
         ScrapperService service = new ScrapperService(excelFile, carpetaImagenes, carpetaVideos, cookies,
-                requestsPorSeg);
+                requestsPorSeg, leerOpciones());
 
         service.messageProperty().addListener((obs, old, nuevo) -> {
             if (nuevo != null && !nuevo.isBlank()) {